@@ -0,0 +1,230 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small measurement harness for the demos.
+ *
+ * Timing a single cold run with System.currentTimeMillis() mostly measures JIT compilation and
+ * scheduler jitter. Here every thread first runs a number of warm-up operations that are thrown away,
+ * then all threads are released together through a latch and every measured operation is timed
+ * individually with System.nanoTime(). From those samples we get throughput and latency percentiles.
+ * Where the JVM supports it, the bytes allocated by the benchmark threads are reported as well.
+ *
+ * Parameters are read from system properties so a run can be tuned from the command line, e.g.
+ * -Dthreads=1,2,4,8 -DwarmupOps=200 -DmeasuredOps=1000
+ */
+public class Benchmark {
+
+    /** Work executed by a benchmark thread. The index identifies the thread (0 until threads - 1). */
+    public interface Operation {
+        void run(int threadIndex);
+    }
+
+    public static class Result {
+        private final String name;
+        private final int threads;
+        private final long elapsedNanos;
+        private final long[] latencies;
+        private final long allocatedBytes;
+
+        /** For benchmarks that collect their own latency samples; allocatedBytes is -1 if unknown. */
+        public Result(String name, int threads, long elapsedNanos, long[] latencies, long allocatedBytes) {
+            this.name = name;
+            this.threads = threads;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            this.allocatedBytes = allocatedBytes;
+            Arrays.sort(this.latencies);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public long getOperations() {
+            return latencies.length;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /** Bytes allocated per operation, or -1 if the JVM cannot measure allocations. */
+        public double allocatedBytesPerOp() {
+            if (allocatedBytes < 0 || latencies.length == 0) {
+                return -1;
+            }
+            return (double) allocatedBytes / latencies.length;
+        }
+
+        /** Allocation rate in MB/s across all threads, or -1 if the JVM cannot measure allocations. */
+        public double allocationRate() {
+            if (allocatedBytes < 0) {
+                return -1;
+            }
+            return allocatedBytes * 1_000_000_000.0 / elapsedNanos / (1024 * 1024);
+        }
+
+        /** Operations per second across all threads. */
+        public double throughput() {
+            return latencies.length * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        /** Latency in nanoseconds at the given percentile, e.g. 99.9 */
+        public long percentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+    }
+
+    public static Result run(String name, int threads, int warmupOps, int measuredOps, Operation operation) {
+        long[][] samples = new long[threads][measuredOps];
+        int[] completed = new int[threads];
+        long[] allocated = new long[threads];
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        boolean measureAllocations = allocationMeasurementSupported(threadBean);
+        CountDownLatch warmedUp = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(threads);
+        AtomicInteger failedThreads = new AtomicInteger();
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int threadIndex = t;
+            workers[t] = new Thread(() -> {
+                // latches are released in finally blocks so a failing operation (e.g. a racy ArrayList
+                // throwing ArrayIndexOutOfBoundsException) cannot hang the whole run
+                try {
+                    try {
+                        for (int i = 0; i < warmupOps; i++) {
+                            operation.run(threadIndex);
+                        }
+                    } finally {
+                        warmedUp.countDown();
+                    }
+                    start.await();
+                    long[] mine = samples[threadIndex];
+                    long allocatedBefore = measureAllocations ? allocatedBytes(threadBean) : 0;
+                    for (int i = 0; i < measuredOps; i++) {
+                        long begin = System.nanoTime();
+                        operation.run(threadIndex);
+                        mine[i] = System.nanoTime() - begin;
+                        completed[threadIndex]++;
+                    }
+                    if (measureAllocations) {
+                        allocated[threadIndex] = allocatedBytes(threadBean) - allocatedBefore;
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } catch (RuntimeException | Error e) {
+                    // the thread stops here; the operations it completed so far still count
+                    failedThreads.incrementAndGet();
+                    e.printStackTrace();
+                } finally {
+                    finished.countDown();
+                }
+            }, name + "-" + t);
+            workers[t].start();
+        }
+
+        long begin;
+        long end;
+        try {
+            warmedUp.await();
+            begin = System.nanoTime();
+            start.countDown();
+            finished.await();
+            end = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Benchmark interrupted", e);
+        }
+        if (failedThreads.get() > 0) {
+            System.out.println(name + ": " + failedThreads.get() + " of " + threads
+                    + " threads failed, results only include the operations before the failure");
+        }
+
+        int total = 0;
+        for (int count : completed) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(samples[t], 0, all, offset, completed[t]);
+            offset += completed[t];
+        }
+        long allocatedTotal = -1;
+        if (measureAllocations) {
+            allocatedTotal = 0;
+            for (long bytes : allocated) {
+                allocatedTotal += bytes;
+            }
+        }
+        return new Result(name, threads, end - begin, all, allocatedTotal);
+    }
+
+    /** HotSpot exposes per thread allocation counters through its own extension of ThreadMXBean. */
+    private static boolean allocationMeasurementSupported(ThreadMXBean threadBean) {
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) threadBean;
+        if (!hotSpotBean.isThreadAllocatedMemorySupported()) {
+            return false;
+        }
+        hotSpotBean.setThreadAllocatedMemoryEnabled(true);
+        return true;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threadBean) {
+        return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void printHeader() {
+        System.out.println(String.format("%-28s %7s %12s %10s %10s %10s %10s %10s %10s %10s",
+                "Benchmark", "Threads", "ops/s", "p50(us)", "p90(us)", "p99(us)", "p99.9(us)", "max(us)",
+                "B/op", "MB/s"));
+    }
+
+    public static void print(Result result) {
+        System.out.println(String.format("%-28s %7d %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f",
+                result.getName(), result.getThreads(), result.throughput(),
+                micros(result.percentile(50)), micros(result.percentile(90)),
+                micros(result.percentile(99)), micros(result.percentile(99.9)),
+                micros(result.percentile(100)), result.allocatedBytesPerOp(), result.allocationRate()));
+    }
+
+    /** Reads a comma separated list of integers from a system property. */
+    public static int[] intsProperty(String key, String defaultValue) {
+        String[] parts = System.getProperty(key, defaultValue).split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    public static int intProperty(String key, int defaultValue) {
+        return Integer.getInteger(key, defaultValue);
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+}
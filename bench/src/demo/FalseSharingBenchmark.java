@@ -0,0 +1,57 @@
+package demo;
+
+import bench.Benchmark;
+import common.ObjectLayout;
+
+/**
+ * Measures false sharing between the two counters of a CounterPair.
+ *
+ * Even thread indexes increment the first counter, odd ones the second, so with 2 threads no field is ever
+ * written by more than one thread and any difference between the layouts is caused by the cache line alone.
+ * With more threads each field also has true contention, which is the same for every layout.
+ * One operation is -DbatchSize increments, so the timing around it doesn't dominate.
+ *
+ * The field layout of every kind is printed first, it shows how far apart the JVM put the two counters.
+ * On a multi-socket machine pin the threads to different sockets (e.g. with numactl) to see the worst case.
+ *
+ * Run with e.g. -Dthreads=2,4,8 -DbatchSize=100 -DmeasuredOps=100000
+ */
+public class FalseSharingBenchmark {
+
+    public static void main(String[] args) {
+        int[] threadCounts = Benchmark.intsProperty("threads", "2,4,8");
+        int batchSize = Benchmark.intProperty("batchSize", 100);
+        int warmupOps = Benchmark.intProperty("warmupOps", 10_000);
+        int measuredOps = Benchmark.intProperty("measuredOps", 100_000);
+
+        for (CounterPair.Kind kind : CounterPair.Kind.values()) {
+            Class<?> type = kind.create().getClass();
+            ObjectLayout.print(System.out, type);
+            System.out.println(String.format("    first and second %s share a cache line",
+                    ObjectLayout.mayShareCacheLine(type, "first", "second") ? "may" : "can't"));
+        }
+        System.out.println();
+
+        Benchmark.printHeader();
+        for (int threads : threadCounts) {
+            for (CounterPair.Kind kind : CounterPair.Kind.values()) {
+                CounterPair pair = kind.create();
+                Benchmark.Result result = Benchmark.run(kind.name(), threads, warmupOps, measuredOps,
+                        threadIndex -> {
+                            if (threadIndex % 2 == 0) {
+                                for (int i = 0; i < batchSize; i++) {
+                                    pair.incrementFirst();
+                                }
+                            } else {
+                                for (int i = 0; i < batchSize; i++) {
+                                    pair.incrementSecond();
+                                }
+                            }
+                        });
+                Benchmark.print(result);
+                System.out.println(String.format("    %.1f ns per increment", threads * 1_000_000_000.0
+                        / result.throughput() / batchSize));
+            }
+        }
+    }
+}
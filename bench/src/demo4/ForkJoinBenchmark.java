@@ -0,0 +1,50 @@
+package demo4;
+
+import bench.Benchmark;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares Worker.sequentialProcess() with Worker.forkJoinProcess() at different pool sizes.
+ *
+ * With SLEEP stages the speedup comes from overlapping waits and keeps growing with the pool size, even on
+ * one core. With CPU stages it can't exceed the number of cores, which shows real core scaling.
+ *
+ * Run with e.g. -Dbody=CPU -DcpuIterations=200000 -Dparallelism=1,2,4,8 -Diterations=1000
+ */
+public class ForkJoinBenchmark {
+
+    public static void main(String[] args) {
+        Worker.StageBody body = Worker.StageBody.valueOf(System.getProperty("body", "CPU").toUpperCase());
+        int cpuIterations = Benchmark.intProperty("cpuIterations", 100_000);
+        int stageLatency = Benchmark.intProperty("stageLatency", 1);
+        int iterations = Benchmark.intProperty("iterations", 1000);
+        int rounds = Benchmark.intProperty("rounds", 5);
+        RandomSource randomSource = RandomSource.valueOf(System.getProperty("randomSource", "THREAD_LOCAL"));
+
+        System.out.println("Stage body: " + body + "; cores: " + Runtime.getRuntime().availableProcessors());
+        // warm up and baseline
+        long sequential = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            Worker worker = new Worker(stageLatency, IntStore.Kind.HEAP, randomSource, body, cpuIterations);
+            long start = System.nanoTime();
+            worker.sequentialProcess(iterations);
+            sequential = Math.min(sequential, System.nanoTime() - start);
+        }
+        System.out.println(String.format("%-12s %10.1fms", "sequential", sequential / 1e6));
+
+        for (int parallelism : Benchmark.intsProperty("parallelism", "1,2,4,8")) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                Worker worker = new Worker(stageLatency, IntStore.Kind.HEAP, randomSource, body, cpuIterations);
+                long start = System.nanoTime();
+                worker.forkJoinProcess(pool, iterations);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            System.out.println(String.format("%-12s %10.1fms  speedup %.2fx", "forkjoin(" + parallelism + ")",
+                    best / 1e6, (double) sequential / best));
+        }
+    }
+}
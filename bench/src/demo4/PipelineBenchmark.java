@@ -0,0 +1,40 @@
+package demo4;
+
+import bench.Benchmark;
+
+/**
+ * Worker.pipelinedProcess() with a slow and a fast stage: measured iterations per second next to what the
+ * slower stage allows (Worker.pipelineBound()).
+ *
+ * With the defaults stage two takes twice as long as stage one, so one thread per stage runs at stage two's
+ * pace however fast stage one is. Adding stage two threads raises the bound until stage one becomes the
+ * slower stage; adding stage one threads before that changes nothing.
+ *
+ * Run with e.g. -Dstage1Millis=1 -Dstage2Millis=2 -Dstage1Threads=1,2 -Dstage2Threads=1,2,4 -Diterations=1000
+ */
+public class PipelineBenchmark {
+
+    public static void main(String[] args) {
+        int stageOneMillis = Benchmark.intProperty("stage1Millis", 1);
+        int stageTwoMillis = Benchmark.intProperty("stage2Millis", 2);
+        int iterations = Benchmark.intProperty("iterations", 1000);
+        int queueCapacity = Benchmark.intProperty("queueCapacity", 10);
+
+        System.out.println("Stage one: " + stageOneMillis + "ms; stage two: " + stageTwoMillis + "ms");
+        System.out.println(String.format("%-8s %-8s %12s %12s %10s", "stage1", "stage2", "iter/s", "bound/s",
+                "of bound"));
+        for (int stageOneThreads : Benchmark.intsProperty("stage1Threads", "1,2")) {
+            for (int stageTwoThreads : Benchmark.intsProperty("stage2Threads", "1,2,4")) {
+                Worker worker = new Worker(0, IntStore.Kind.HEAP, RandomSource.THREAD_LOCAL);
+                long start = System.nanoTime();
+                worker.pipelinedProcess(iterations, stageOneThreads, stageOneMillis, stageTwoThreads,
+                        stageTwoMillis, queueCapacity);
+                double throughput = iterations * 1e9 / (System.nanoTime() - start);
+                double bound = Worker.pipelineBound(stageOneThreads, stageOneMillis, stageTwoThreads,
+                        stageTwoMillis);
+                System.out.println(String.format("%-8d %-8d %12.0f %12.0f %9.0f%%", stageOneThreads,
+                        stageTwoThreads, throughput, bound, 100 * throughput / bound));
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package demo4;
+
+import bench.Benchmark;
+
+/**
+ * Measures only the random number generation that every Worker stage does.
+ *
+ * For the shared Random it also prints how many nanoseconds per value it costs compared to ThreadLocalRandom
+ * at the same thread count, which is roughly the time spent spinning on the shared seed. The SHARED row is a
+ * plain Random like the Worker stages use; a separate CountingRandom row with the same CAS loop reports how
+ * many compare-and-set attempts failed per value, warm-up included.
+ *
+ * Run with e.g. -Dthreads=1,2,4,8,16 -DmeasuredOps=1000000
+ */
+public class RandomSourceBenchmark {
+
+    public static void main(String[] args) {
+        int[] threadCounts = Benchmark.intsProperty("threads", "1,2,4,8");
+        int warmupOps = Benchmark.intProperty("warmupOps", 100_000);
+        int measuredOps = Benchmark.intProperty("measuredOps", 1_000_000);
+
+        Benchmark.printHeader();
+        for (int threads : threadCounts) {
+            double threadLocalNanos = 0;
+            for (RandomSource source : new RandomSource[]{RandomSource.THREAD_LOCAL, RandomSource.SPLITTABLE,
+                    RandomSource.SHARED}) {
+                Worker worker = new Worker(0, IntStore.Kind.HEAP, source);
+                Benchmark.Result result = Benchmark.run(source.name(), threads, warmupOps, measuredOps,
+                        threadIndex -> worker.nextRandom());
+                Benchmark.print(result);
+
+                // time one thread spends per value
+                double nanosPerOp = threads * 1_000_000_000.0 / result.throughput();
+                if (source == RandomSource.THREAD_LOCAL) {
+                    threadLocalNanos = nanosPerOp;
+                } else if (source == RandomSource.SHARED) {
+                    System.out.println(String.format("    extra cost vs THREAD_LOCAL: %.1f ns per value",
+                            nanosPerOp - threadLocalNanos));
+                }
+            }
+
+            CountingRandom counting = new CountingRandom();
+            Benchmark.print(Benchmark.run("SHARED (counting)", threads, warmupOps, measuredOps,
+                    threadIndex -> counting.nextInt(100)));
+            double retriesPerOp = (double) counting.getCasRetries() / ((long) threads * (warmupOps + measuredOps));
+            System.out.println(String.format("    CAS retries per value: %.3f", retriesPerOp));
+        }
+    }
+}
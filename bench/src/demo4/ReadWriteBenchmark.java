@@ -0,0 +1,89 @@
+package demo4;
+
+import bench.Benchmark;
+
+/**
+ * Readers against writers on the stage one list: threadIndex 0 until readers - 1 only read the most recent
+ * values (Worker.readStageOne()), the remaining writers threads only run full iterations that write.
+ *
+ * With LOCK every reader excludes every other reader, and so does EXCLUSIVE, which stores the same plain
+ * ints as the other two and so is their baseline. READ_WRITE lets readers run in parallel but each
+ * read still writes the lock state, STAMPED readers usually only read a version number and validate it.
+ * Reader throughput should therefore grow with the reader count for READ_WRITE and STAMPED only, and the
+ * writer rows show what the readers cost the writers.
+ *
+ * Each group is reported on its own: ops/s over the time from its first to its last measured operation and
+ * latencies of its measured operations only (warm-up excluded). The allocation columns are not split by
+ * group and show -1.
+ *
+ * Run with e.g. -Dreaders=1,2,4,8 -Dwriters=1
+ */
+public class ReadWriteBenchmark {
+
+    private static final Worker.Strategy[] STRATEGIES = {
+            Worker.Strategy.LOCK, Worker.Strategy.EXCLUSIVE, Worker.Strategy.READ_WRITE, Worker.Strategy.STAMPED
+    };
+
+    public static void main(String[] args) {
+        int[] readerCounts = Benchmark.intsProperty("readers", "1,2,4,8");
+        int writers = Benchmark.intProperty("writers", 1);
+        int warmupOps = Benchmark.intProperty("warmupOps", 20_000);
+        int measuredOps = Benchmark.intProperty("measuredOps", 100_000);
+
+        Benchmark.printHeader();
+        for (int readers : readerCounts) {
+            for (Worker.Strategy strategy : STRATEGIES) {
+                // no sleeping in the stages, we want to see the locks
+                Worker worker = new Worker(0);
+                int threads = readers + writers;
+                // per thread: operations so far, first and last measured operation, measured latencies
+                int[] calls = new int[threads];
+                long[] firstStart = new long[threads];
+                long[] lastEnd = new long[threads];
+                long[][] samples = new long[threads][measuredOps];
+                Benchmark.run(strategy + " " + readers + "r/" + writers + "w", threads, warmupOps, measuredOps,
+                        threadIndex -> {
+                            long begin = System.nanoTime();
+                            if (threadIndex < readers) {
+                                worker.readStageOne(strategy);
+                            } else {
+                                worker.iteration(strategy);
+                            }
+                            long end = System.nanoTime();
+                            // Benchmark runs the warm-up operations of a thread first, then the measured ones
+                            int measured = calls[threadIndex]++ - warmupOps;
+                            if (measured >= 0) {
+                                if (measured == 0) {
+                                    firstStart[threadIndex] = begin;
+                                }
+                                samples[threadIndex][measured] = end - begin;
+                                lastEnd[threadIndex] = end;
+                            }
+                        });
+                // Benchmark.run() joined the threads, so their arrays are visible here
+                Benchmark.print(group(strategy + " reads x" + readers, 0, readers, firstStart, lastEnd, samples));
+                Benchmark.print(group(strategy + " writes x" + writers, readers, threads, firstStart, lastEnd,
+                        samples));
+            }
+        }
+    }
+
+    private static Benchmark.Result group(String name, int from, int to, long[] firstStart, long[] lastEnd,
+                                          long[][] samples) {
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        int operations = 0;
+        for (int t = from; t < to; t++) {
+            start = Math.min(start, firstStart[t]);
+            end = Math.max(end, lastEnd[t]);
+            operations += samples[t].length;
+        }
+        long[] latencies = new long[operations];
+        int offset = 0;
+        for (int t = from; t < to; t++) {
+            System.arraycopy(samples[t], 0, latencies, offset, samples[t].length);
+            offset += samples[t].length;
+        }
+        return new Benchmark.Result(name, to - from, Math.max(1, end - start), latencies, -1);
+    }
+}
@@ -0,0 +1,91 @@
+package demo4;
+
+import bench.Benchmark;
+import common.LockProfiler;
+
+/**
+ * Compares every Worker locking strategy under the same conditions.
+ *
+ * One operation is one stageOne()/stageTwo() pair, so with a stage latency of 1ms the best possible
+ * latency is a bit more than 2ms and throughput should grow with the number of threads unless the
+ * strategy serializes them (see SYNCHRONIZED).
+ *
+ * PRIMITIVE is run once per IntStore.Kind (-DintStorage=HEAP,DIRECT) and printed next to the boxed
+ * strategies, so the B/op and MB/s columns show what boxing and reference arrays cost.
+ * A stage latency of 0 makes allocation and locking dominate instead of sleeping.
+ *
+ * -DrandomSource=SHARED|THREAD_LOCAL|SPLITTABLE picks the random generator used by the stages.
+ * With -Dlock.profile=true the wait and hold times of every lock are printed after each run.
+ *
+ * Run with e.g. -Dthreads=1,2,4,8 -DstageLatency=0,1 -Dstrategies=LOCK,VECTOR
+ */
+public class WorkerBenchmark {
+
+    public static void main(String[] args) {
+        int[] threadCounts = Benchmark.intsProperty("threads", "1,2,4");
+        int[] stageLatencies = Benchmark.intsProperty("stageLatency", "1");
+        int warmupOps = Benchmark.intProperty("warmupOps", 100);
+        int measuredOps = Benchmark.intProperty("measuredOps", 500);
+        Worker.Strategy[] strategies = strategies(System.getProperty("strategies"));
+        IntStore.Kind[] intStorages = intStorages(System.getProperty("intStorage", "HEAP,DIRECT"));
+        RandomSource randomSource = RandomSource.valueOf(System.getProperty("randomSource", "SHARED").toUpperCase());
+
+        for (int stageLatency : stageLatencies) {
+            System.out.println("Stage latency: " + stageLatency + "ms; random source: " + randomSource);
+            Benchmark.printHeader();
+            for (Worker.Strategy strategy : strategies) {
+                IntStore.Kind[] storages = strategy == Worker.Strategy.PRIMITIVE
+                        ? intStorages : new IntStore.Kind[]{IntStore.Kind.HEAP};
+                for (IntStore.Kind storage : storages) {
+                    String name = strategy == Worker.Strategy.PRIMITIVE
+                            ? strategy.name() + "(" + storage.name() + ")" : strategy.name();
+                    for (int threads : threadCounts) {
+                        Worker worker = new Worker(stageLatency, storage, randomSource);
+                        run(name, strategy, worker, threads, warmupOps, measuredOps);
+                    }
+                }
+            }
+            System.out.println();
+        }
+    }
+
+    private static void run(String name, Worker.Strategy strategy, Worker worker, int threads,
+                            int warmupOps, int measuredOps) {
+        Benchmark.Result result = Benchmark.run(name, threads, warmupOps, measuredOps,
+                threadIndex -> worker.iteration(strategy));
+        Benchmark.print(result);
+
+        // PLAIN uses unsynchronized ArrayLists so elements get lost (or worse) with more than one thread
+        int expected = threads * (warmupOps + measuredOps);
+        int sizeOne = worker.stageOneSize(strategy);
+        int sizeTwo = worker.stageTwoSize(strategy);
+        if (sizeOne != expected || sizeTwo != expected) {
+            System.out.println("    lost updates: expected " + expected + " got " + sizeOne + "/" + sizeTwo);
+        }
+        if (LockProfiler.isEnabled()) {
+            LockProfiler.printSummary(System.out);
+            LockProfiler.resetAll();
+        }
+    }
+
+    private static IntStore.Kind[] intStorages(String property) {
+        String[] names = property.split(",");
+        IntStore.Kind[] kinds = new IntStore.Kind[names.length];
+        for (int i = 0; i < names.length; i++) {
+            kinds[i] = IntStore.Kind.valueOf(names[i].trim().toUpperCase());
+        }
+        return kinds;
+    }
+
+    private static Worker.Strategy[] strategies(String property) {
+        if (property == null || property.isEmpty()) {
+            return Worker.Strategy.values();
+        }
+        String[] names = property.split(",");
+        Worker.Strategy[] strategies = new Worker.Strategy[names.length];
+        for (int i = 0; i < names.length; i++) {
+            strategies[i] = Worker.Strategy.valueOf(names[i].trim().toUpperCase());
+        }
+        return strategies;
+    }
+}
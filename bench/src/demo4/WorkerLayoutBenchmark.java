@@ -0,0 +1,40 @@
+package demo4;
+
+import bench.Benchmark;
+import common.ObjectLayout;
+
+/**
+ * Worker's LOCK strategy with COMPACT and PADDED layouts of lock1/lock2 and list1/list2.
+ *
+ * Even thread indexes run only stage one, odd ones only stage two (see Worker.lockStage()), so the two
+ * groups never take the same lock or touch the same list. With the COMPACT layout the two monitors and the
+ * two ArrayLists were allocated next to each other and may still share cache lines; PADDED keeps them apart.
+ * The stage latency is 0 so the stages are nothing but lock, add and unlock.
+ *
+ * Run with e.g. -Dthreads=2,4,8 -DmeasuredOps=200000
+ */
+public class WorkerLayoutBenchmark {
+
+    public static void main(String[] args) {
+        int[] threadCounts = Benchmark.intsProperty("threads", "2,4,8");
+        int warmupOps = Benchmark.intProperty("warmupOps", 20_000);
+        int measuredOps = Benchmark.intProperty("measuredOps", 200_000);
+
+        ObjectLayout.print(System.out, Object.class);
+        ObjectLayout.print(System.out, PaddedLock.class);
+        ObjectLayout.print(System.out, java.util.ArrayList.class);
+        ObjectLayout.print(System.out, PaddedArrayList.class);
+        System.out.println();
+
+        Benchmark.printHeader();
+        for (int threads : threadCounts) {
+            for (Worker.Layout layout : Worker.Layout.values()) {
+                Worker worker = new Worker(0, IntStore.Kind.HEAP, RandomSource.THREAD_LOCAL,
+                        Worker.StageBody.SLEEP, 0, layout);
+                Benchmark.Result result = Benchmark.run(layout.name(), threads, warmupOps, measuredOps,
+                        threadIndex -> worker.lockStage(threadIndex % 2 + 1));
+                Benchmark.print(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package demo6;
+
+import bench.Benchmark;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * One producer hands items to one consumer through each queue type as fast as possible.
+ *
+ * Every item is the System.nanoTime() of its put(), so the consumer can record how long each item
+ * spent in the queue. The latency columns are that enqueue to dequeue time.
+ *
+ * Run with e.g. -Dqueues=array,linked,ring:spin,ring:block -Dcapacity=1024 -Ditems=5000000
+ */
+public class QueueBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] queues = System.getProperty("queues",
+                "array,linked,ring:spin,ring:yield,ring:park,ring:block,ring-multi:yield").split(",");
+        int capacity = Benchmark.intProperty("capacity", 1024);
+        int items = Benchmark.intProperty("items", 2_000_000);
+        int warmupItems = Benchmark.intProperty("warmupItems", 500_000);
+
+        Benchmark.printHeader();
+        for (String type : queues) {
+            BlockingQueue<Long> queue = ProducerConsumerDemo.newQueue(type.trim(), capacity);
+            transfer(queue, warmupItems);
+            long start = System.nanoTime();
+            long[] latencies = transfer(queue, items);
+            long elapsed = System.nanoTime() - start;
+            Benchmark.print(new Benchmark.Result(type.trim(), 2, elapsed, latencies, -1));
+        }
+    }
+
+    private static long[] transfer(BlockingQueue<Long> queue, int items) throws InterruptedException {
+        long[] latencies = new long[items];
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < items; i++) {
+                    queue.put(System.nanoTime());
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        Thread consumer = new Thread(() -> {
+            try {
+                for (int i = 0; i < items; i++) {
+                    long enqueued = queue.take();
+                    latencies[i] = System.nanoTime() - enqueued;
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        producer.start();
+        consumer.start();
+        producer.join();
+        consumer.join();
+        return latencies;
+    }
+}
@@ -0,0 +1,176 @@
+package common;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Console logging that does not serialize the threads calling it.
+ *
+ * System.out.println() takes the PrintStream's lock and writes to the console while holding it, so in a demo
+ * where many threads print, the threads mostly wait for each other and for console I/O. Measured times then
+ * say more about the console than about the concurrency primitive being demonstrated.
+ *
+ * Here every thread appends to its own ring buffer (one producer, one consumer, no locks) and a single
+ * background thread drains all buffers into a buffered stream. Messages of one thread keep their order;
+ * messages of different threads may interleave differently than with System.out.
+ *
+ * Call flush() before printing results with System.out so both outputs appear in order. Pending messages
+ * are also flushed when the JVM shuts down.
+ *
+ * Demos that run a thread per task log from tens of thousands of short lived threads. A buffer only keeps a
+ * weak reference to its thread, and once the thread ended and the buffer is drained it goes to a small pool
+ * that the next new logging thread takes its buffer from, instead of allocating another one.
+ */
+public final class AsyncLog {
+
+    private static final int RING_SIZE = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SHUTDOWN_FLUSH_MILLIS = 5000;
+    private static final long FLUSH_TIMEOUT_MILLIS = 60_000;
+    private static final int MAX_FREE_RINGS = 64;
+
+    /** A single producer, single consumer ring buffer owned by one logging thread */
+    private static final class Ring {
+        /** set before the ring is (re)registered, so the writer always sees the current owner */
+        private WeakReference<Thread> owner;
+        private final String[] slots = new String[RING_SIZE];
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        boolean offer(String message) {
+            long t = tail.get();
+            if (t - head.get() == RING_SIZE) {
+                return false;
+            }
+            slots[(int) t & (RING_SIZE - 1)] = message;
+            // lazySet publishes the slot before the new tail without a full fence
+            tail.lazySet(t + 1);
+            return true;
+        }
+
+        /**
+         * Writes the messages that are in the ring now. Messages the owner adds meanwhile wait for the next
+         * pass, so a thread that logs non-stop can't keep the writer here.
+         */
+        int drainTo(PrintStream stream) {
+            long h = head.get();
+            long end = tail.get();
+            for (long position = h; position < end; position++) {
+                int index = (int) position & (RING_SIZE - 1);
+                stream.println(slots[index]);
+                slots[index] = null;
+            }
+            head.lazySet(end);
+            return (int) (end - h);
+        }
+
+        boolean isEmpty() {
+            return head.get() == tail.get();
+        }
+
+        boolean isOwnerAlive() {
+            Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+    }
+
+    private static final Queue<Ring> rings = new ConcurrentLinkedQueue<>();
+    /** Drained rings of ended threads, only the writer adds to it */
+    private static final Queue<Ring> freeRings = new ArrayBlockingQueue<>(MAX_FREE_RINGS);
+    private static final ThreadLocal<Ring> localRing = ThreadLocal.withInitial(() -> {
+        Ring ring = freeRings.poll();
+        if (ring == null) {
+            ring = new Ring();
+        }
+        ring.owner = new WeakReference<>(Thread.currentThread());
+        // the queue's insert publishes owner to the writer
+        rings.add(ring);
+        return ring;
+    });
+    private static final PrintStream out = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+    private static final AtomicLong flushRequests = new AtomicLong();
+    private static volatile long flushesCompleted;
+    private static final Thread writer = new Thread(AsyncLog::drainLoop, "async-log-writer");
+
+    static {
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(SHUTDOWN_FLUSH_MILLIS), "async-log-flush"));
+    }
+
+    private AsyncLog() {
+    }
+
+    /** Queues a line for the writer thread. Only waits if this thread's buffer is full. */
+    public static void println(String message) {
+        Ring ring = localRing.get();
+        while (!ring.offer(message)) {
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Waits until every message logged before this call has been written out, or a minute passed.
+     *
+     * @return false if the timeout passed first
+     */
+    public static boolean flush() {
+        return flush(FLUSH_TIMEOUT_MILLIS);
+    }
+
+    private static boolean flush(long timeoutMillis) {
+        long ticket = flushRequests.incrementAndGet();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (flushesCompleted < ticket) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(IDLE_PARK_NANOS / 10);
+        }
+        return true;
+    }
+
+    private static void drainLoop() {
+        while (true) {
+            long requested = flushRequests.get();
+            // messages logged before a flush request are in their ring before the request is, so one pass
+            // started after reading the request writes them all, however busy the loggers are now
+            int drained = drainAll();
+            if (requested != flushesCompleted || drained == 0) {
+                out.flush();
+                flushesCompleted = requested;
+            }
+            if (drained == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private static int drainAll() {
+        int drained = 0;
+        Iterator<Ring> iterator = rings.iterator();
+        while (iterator.hasNext()) {
+            Ring ring = iterator.next();
+            drained += ring.drainTo(out);
+            // threads that ended can't log anymore, so their buffers can be reused once drained
+            if (!ring.isOwnerAlive() && ring.isEmpty()) {
+                iterator.remove();
+                freeRings.offer(ring);
+            }
+        }
+        return drained;
+    }
+}
@@ -0,0 +1,153 @@
+package common;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of non-negative values (usually nanoseconds), in the spirit of HdrHistogram.
+ *
+ * Values are grouped by powers of two and every power of two is split into 16 linear sub-buckets, so each
+ * bucket is at most about 6% wide whatever the magnitude. That is precise enough for percentiles, needs
+ * only 960 counters for the whole long range and recording is a single atomic increment.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** Records one value; negative values are counted as 0. Safe to call from any thread. */
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(Math.max(0, value)));
+    }
+
+    /** Adds all counts of the other histogram to this one. */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /** Upper bound of the bucket holding the given percentile (0 - 100), or 0 if nothing was recorded. */
+    public long percentile(double percentile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(BUCKETS - 1);
+    }
+
+    public long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return highestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /** Approximate mean, using the middle of every bucket. */
+    public double mean() {
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            if (count != 0) {
+                total += count;
+                sum += count * ((lowestValue(i) + highestValue(i)) / 2.0);
+            }
+        }
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /** Prints the common percentiles, values divided by unitNanos (e.g. 1000 for microseconds). */
+    public void printPercentiles(PrintStream out, String unit, long unitNanos) {
+        out.println(String.format("count: %d; mean: %.1f%s; p50: %.1f%s; p90: %.1f%s; p99: %.1f%s; p99.9: %.1f%s; "
+                        + "max: %.1f%s", count(),
+                mean() / unitNanos, unit,
+                (double) percentile(50) / unitNanos, unit,
+                (double) percentile(90) / unitNanos, unit,
+                (double) percentile(99) / unitNanos, unit,
+                (double) percentile(99.9) / unitNanos, unit,
+                (double) max() / unitNanos, unit));
+    }
+
+    /** Prints one line per power of two that has values, with a bar proportional to its count. */
+    public void printDistribution(PrintStream out, String unit, long unitNanos) {
+        long total = count();
+        if (total == 0) {
+            out.println("(no values)");
+            return;
+        }
+        for (int first = 0; first < BUCKETS; first += SUB_BUCKETS) {
+            long count = 0;
+            for (int i = first; i < first + SUB_BUCKETS; i++) {
+                count += counts.get(i);
+            }
+            if (count == 0) {
+                continue;
+            }
+            int bar = (int) Math.max(1, 50 * count / total);
+            StringBuilder hashes = new StringBuilder();
+            for (int i = 0; i < bar; i++) {
+                hashes.append('#');
+            }
+            out.println(String.format("%12.1f - %12.1f%s %10d %s",
+                    (double) lowestValue(first) / unitNanos, (double) highestValue(first + SUB_BUCKETS - 1) / unitNanos,
+                    unit, count, hashes));
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        return lowestValue(index) + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
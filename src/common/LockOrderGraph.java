@@ -0,0 +1,238 @@
+package common;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Finds lock order inversions before they deadlock, and reports the deadlocks that happen anyway.
+ *
+ * Two threads that take the same two locks in opposite order deadlock only if their timing is unlucky, so
+ * tests rarely catch it. Instead, every LockProfiler.Site reports here which locks its thread already holds
+ * when it takes its own. That gives a graph with an edge "held -> taken" per observed nesting, keyed by site
+ * name so all Worker instances share one node per lock. A cycle in that graph means some threads take the
+ * locks in different orders and can deadlock, whether or not they did this time. Each cycle is printed
+ * once, with the stack trace that first created each of its edges.
+ *
+ * Tracking is off unless the JVM runs with -Dlock.order=true. Once an edge is known, an acquisition costs a
+ * thread local lookup and one map lookup per lock already held, so it can stay on in staging.
+ *
+ * The deadlock watchdog is independent of the graph: it asks the JVM for threads that are deadlocked right
+ * now (monitors and java.util.concurrent locks) and prints their stacks and the locks they wait for.
+ */
+public final class LockOrderGraph {
+
+    static final boolean ENABLED = Boolean.getBoolean("lock.order");
+
+    /** Sites the current thread holds, in acquisition order; re-entrant acquisitions appear again */
+    private static final ThreadLocal<List<String>> held = ThreadLocal.withInitial(ArrayList::new);
+    /** held lock -> lock taken while holding it -> where that first happened */
+    private static final ConcurrentMap<String, ConcurrentMap<String, Edge>> edges = new ConcurrentHashMap<>();
+    private static final Set<Set<String>> reportedCycles = ConcurrentHashMap.newKeySet();
+    private static final List<String> cycles = new CopyOnWriteArrayList<>();
+    private static final Set<Set<Long>> reportedDeadlocks = ConcurrentHashMap.newKeySet();
+
+    private LockOrderGraph() {
+    }
+
+    private static final class Edge {
+        private final String from;
+        private final String to;
+        private final String thread;
+        private final StackTraceElement[] stack;
+
+        Edge(String from, String to) {
+            this.from = from;
+            this.to = to;
+            this.thread = Thread.currentThread().getName();
+            this.stack = new Throwable().getStackTrace();
+        }
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Called before the current thread tries to take the lock of the given site, so an inversion is
+     * reported even if this very acquisition deadlocks. Must be paired with released().
+     */
+    static void acquiring(String site) {
+        List<String> locks = held.get();
+        for (int i = 0; i < locks.size(); i++) {
+            String holding = locks.get(i);
+            if (!holding.equals(site)) {
+                addEdge(holding, site);
+            }
+        }
+        locks.add(site);
+    }
+
+    /** Called after the lock was released, or when it could not be taken. */
+    static void released(String site) {
+        List<String> locks = held.get();
+        int last = locks.lastIndexOf(site);
+        if (last >= 0) {
+            locks.remove(last);
+        }
+    }
+
+    private static void addEdge(String from, String to) {
+        ConcurrentMap<String, Edge> out = edges.computeIfAbsent(from, key -> new ConcurrentHashMap<>());
+        if (out.containsKey(to)) {
+            return;
+        }
+        Edge edge = new Edge(from, to);
+        if (out.putIfAbsent(to, edge) != null) {
+            return;
+        }
+        // the new edge closes a cycle if "to" already leads back to "from"
+        List<Edge> path = findPath(to, from);
+        if (path != null) {
+            path.add(0, edge);
+            report(path);
+        }
+    }
+
+    /** Edges of some path from start to target, or null if there is none (breadth first) */
+    private static List<Edge> findPath(String start, String target) {
+        Map<String, Edge> reachedBy = new HashMap<>();
+        Set<String> visited = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(start);
+        visited.add(start);
+        while (!queue.isEmpty()) {
+            String node = queue.poll();
+            if (node.equals(target)) {
+                List<Edge> path = new ArrayList<>();
+                for (String n = target; !n.equals(start); n = reachedBy.get(n).from) {
+                    path.add(0, reachedBy.get(n));
+                }
+                return path;
+            }
+            Map<String, Edge> out = edges.get(node);
+            if (out != null) {
+                for (Edge edge : out.values()) {
+                    if (visited.add(edge.to)) {
+                        reachedBy.put(edge.to, edge);
+                        queue.add(edge.to);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void report(List<Edge> cycle) {
+        Set<String> locks = new TreeSet<>();
+        StringBuilder order = new StringBuilder(cycle.get(0).from);
+        for (Edge edge : cycle) {
+            locks.add(edge.from);
+            order.append(" -> ").append(edge.to);
+        }
+        if (!reportedCycles.add(locks)) {
+            return;
+        }
+        StringBuilder report = new StringBuilder("Lock order cycle: ").append(order).append('\n');
+        for (Edge edge : cycle) {
+            report.append("  ").append(edge.to).append(" taken while holding ").append(edge.from)
+                    .append(" by ").append(edge.thread).append(":\n");
+            for (StackTraceElement frame : edge.stack) {
+                // skip our own frames, the interesting part is who took the locks
+                if (!frame.getClassName().startsWith(LockOrderGraph.class.getName())
+                        && !frame.getClassName().startsWith(LockProfiler.class.getName())) {
+                    report.append("      at ").append(frame).append('\n');
+                }
+            }
+        }
+        cycles.add(report.toString());
+        System.out.print(report);
+    }
+
+    /** Every cycle found so far, as printed */
+    public static List<String> getCycles() {
+        return new ArrayList<>(cycles);
+    }
+
+    /** Forgets all edges and cycles, e.g. between benchmark runs. Locks held right now stay tracked. */
+    public static void reset() {
+        edges.clear();
+        reportedCycles.clear();
+        cycles.clear();
+    }
+
+    /**
+     * Starts a daemon thread that checks for deadlocked threads every intervalMillis and prints each
+     * deadlock once. Works whether or not -Dlock.order is set.
+     */
+    public static Thread startDeadlockWatchdog(long intervalMillis, PrintStream out) {
+        Thread watchdog = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(intervalMillis);
+                    checkForDeadlocks(out);
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }, "deadlock-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+        return watchdog;
+    }
+
+    /**
+     * Prints the threads that are deadlocked right now, unless the same set was reported before. A deadlock
+     * only counts as reported once its report was printed, see getDeadlocksReported().
+     *
+     * @return number of deadlocked threads, 0 if there are none
+     */
+    public static synchronized int checkForDeadlocks(PrintStream out) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        long[] ids = threadBean.findDeadlockedThreads();
+        if (ids == null) {
+            return 0;
+        }
+        Set<Long> key = new HashSet<>();
+        for (long id : ids) {
+            key.add(id);
+        }
+        if (!reportedDeadlocks.contains(key)) {
+            StringBuilder report = new StringBuilder("Deadlock between " + ids.length + " threads:\n");
+            for (ThreadInfo info : threadBean.getThreadInfo(ids, true, true)) {
+                if (info == null) {
+                    continue;
+                }
+                report.append("  \"").append(info.getThreadName()).append("\" waits for ").append(info.getLockName())
+                        .append(" held by \"").append(info.getLockOwnerName()).append("\"\n");
+                // ThreadInfo.toString() cuts the stack after 8 frames
+                for (StackTraceElement frame : info.getStackTrace()) {
+                    report.append("      at ").append(frame).append('\n');
+                }
+            }
+            out.print(report);
+            out.flush();
+            // only now, callers may exit as soon as they see it
+            reportedDeadlocks.add(key);
+        }
+        return ids.length;
+    }
+
+    /** Number of distinct deadlocks reported by checkForDeadlocks() */
+    public static int getDeadlocksReported() {
+        return reportedDeadlocks.size();
+    }
+}
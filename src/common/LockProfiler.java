@@ -0,0 +1,298 @@
+package common;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Measures how long threads wait for locks and how long they hold them, per lock site.
+ *
+ * Total elapsed time says that a program is slow, not which lock is to blame. Code that takes a lock through
+ * a Site instead of a bare synchronized block gets the time until the lock was acquired (wait), the time
+ * it was held (hold) and whether the acquisition was contended, summed up per site name. The numbers are
+ * printed with printSummary() and published as JMX attributes.
+ *
+ * Profiling is off unless the JVM runs with -Dlock.profile=true; a disabled site just takes the lock.
+ * For monitors, an acquisition counts as contended if the thread waited longer than
+ * CONTENDED_THRESHOLD_NANOS. With -Dlock.profile.jmx=true the JVM's own thread contention monitoring
+ * (ThreadMXBean) decides instead, which is exact but costs a few microseconds per acquisition.
+ * For java.util.concurrent locks tryLock() tells exactly.
+ *
+ * Independently of profiling, every Site reports its acquisitions to LockOrderGraph when the JVM runs with
+ * -Dlock.order=true, so nested locking through sites is checked for inconsistent lock order.
+ */
+public final class LockProfiler {
+
+    static final boolean ENABLED = Boolean.getBoolean("lock.profile");
+    private static final boolean USE_THREAD_MX_BEAN = Boolean.getBoolean("lock.profile.jmx");
+    private static final long CONTENDED_THRESHOLD_NANOS = 1000;
+
+    private static final ConcurrentMap<String, Site> sites = new ConcurrentHashMap<>();
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    static {
+        if (ENABLED && USE_THREAD_MX_BEAN && threadBean.isThreadContentionMonitoringSupported()) {
+            threadBean.setThreadContentionMonitoringEnabled(true);
+        }
+    }
+
+    private LockProfiler() {
+    }
+
+    /** The site with the given name, created and registered with JMX on first use. */
+    public static Site site(String name) {
+        return sites.computeIfAbsent(name, Site::new);
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Whether sites do anything besides taking the lock, i.e. profiling or lock order tracking is on. If not,
+     * hot paths can use plain synchronized blocks and skip allocating a Runnable for the site.
+     */
+    public static boolean isTracking() {
+        return ENABLED || LockOrderGraph.ENABLED;
+    }
+
+    public static void resetAll() {
+        sites.values().forEach(Site::reset);
+    }
+
+    /** One line per site that was used, the most waited for first. */
+    public static void printSummary(PrintStream out) {
+        if (!ENABLED) {
+            out.println("Lock profiling is disabled, run with -Dlock.profile=true");
+            return;
+        }
+        List<Site> used = new ArrayList<>();
+        for (Site site : sites.values()) {
+            if (site.getAcquisitions() > 0 || site.getTimeouts() > 0) {
+                used.add(site);
+            }
+        }
+        used.sort((a, b) -> Double.compare(b.getTotalWaitMillis(), a.getTotalWaitMillis()));
+        out.println(String.format("%-24s %12s %12s %12s %12s %12s %12s", "Lock", "acquired", "contended",
+                "wait(ms)", "hold(ms)", "maxWait(ms)", "timeouts"));
+        for (Site site : used) {
+            out.println(String.format("%-24s %12d %12d %12.1f %12.1f %12.3f %12d", site.getName(),
+                    site.getAcquisitions(), site.getContendedAcquisitions(), site.getTotalWaitMillis(),
+                    site.getTotalHoldMillis(), site.getMaxWaitMillis(), site.getTimeouts()));
+        }
+    }
+
+    public static final class Site implements LockSiteMXBean {
+        private final String name;
+        private final LongAdder acquisitions = new LongAdder();
+        private final LongAdder contended = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final LongAdder holdNanos = new LongAdder();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final LongAdder timeouts = new LongAdder();
+
+        private Site(String name) {
+            this.name = name;
+            if (ENABLED) {
+                register();
+            }
+        }
+
+        private void register() {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName objectName = new ObjectName("threading.basics:type=LockSite,name="
+                        + ObjectName.quote(name));
+                if (!server.isRegistered(objectName)) {
+                    server.registerMBean(this, objectName);
+                }
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /** Runs body while holding the monitor of the given object, like synchronized (monitor) { body }. */
+        public void synchronize(Object monitor, Runnable body) {
+            if (!LockOrderGraph.ENABLED) {
+                profiledSynchronize(monitor, body);
+                return;
+            }
+            LockOrderGraph.acquiring(name);
+            try {
+                profiledSynchronize(monitor, body);
+            } finally {
+                LockOrderGraph.released(name);
+            }
+        }
+
+        private void profiledSynchronize(Object monitor, Runnable body) {
+            if (!ENABLED) {
+                synchronized (monitor) {
+                    body.run();
+                }
+                return;
+            }
+            long blockedBefore = USE_THREAD_MX_BEAN ? blockedCount() : 0;
+            long start = System.nanoTime();
+            synchronized (monitor) {
+                long acquired = System.nanoTime();
+                boolean wasContended = USE_THREAD_MX_BEAN
+                        ? blockedCount() > blockedBefore : acquired - start > CONTENDED_THRESHOLD_NANOS;
+                try {
+                    body.run();
+                } finally {
+                    record(acquired - start, System.nanoTime() - acquired, wasContended);
+                }
+            }
+        }
+
+        /** Runs body while holding the given lock. */
+        public void lock(Lock lock, Runnable body) {
+            if (!LockOrderGraph.ENABLED) {
+                profiledLock(lock, body);
+                return;
+            }
+            LockOrderGraph.acquiring(name);
+            try {
+                profiledLock(lock, body);
+            } finally {
+                LockOrderGraph.released(name);
+            }
+        }
+
+        private void profiledLock(Lock lock, Runnable body) {
+            if (!ENABLED) {
+                lock.lock();
+                try {
+                    body.run();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            long start = System.nanoTime();
+            boolean wasContended = !lock.tryLock();
+            if (wasContended) {
+                lock.lock();
+            }
+            long acquired = System.nanoTime();
+            try {
+                body.run();
+            } finally {
+                long released = System.nanoTime();
+                lock.unlock();
+                record(acquired - start, released - acquired, wasContended);
+            }
+        }
+
+        /**
+         * Runs body while holding the given lock if the lock can be taken within the timeout. Unlike lock()
+         * this can't hang forever when the owner waits for a lock we hold; the caller decides how to back off.
+         *
+         * @return false if the timeout passed and body was not run
+         */
+        public boolean tryLock(Lock lock, long timeout, TimeUnit unit, Runnable body) throws InterruptedException {
+            if (LockOrderGraph.ENABLED) {
+                LockOrderGraph.acquiring(name);
+            }
+            try {
+                long start = System.nanoTime();
+                boolean wasContended = !lock.tryLock();
+                if (wasContended && !lock.tryLock(timeout, unit)) {
+                    timeouts.increment();
+                    return false;
+                }
+                long acquired = System.nanoTime();
+                try {
+                    body.run();
+                } finally {
+                    long released = System.nanoTime();
+                    lock.unlock();
+                    if (ENABLED) {
+                        record(acquired - start, released - acquired, wasContended);
+                    }
+                }
+                return true;
+            } finally {
+                if (LockOrderGraph.ENABLED) {
+                    LockOrderGraph.released(name);
+                }
+            }
+        }
+
+        private static long blockedCount() {
+            ThreadInfo info = threadBean.getThreadInfo(Thread.currentThread().getId());
+            return info == null ? 0 : info.getBlockedCount();
+        }
+
+        private void record(long wait, long hold, boolean wasContended) {
+            acquisitions.increment();
+            if (wasContended) {
+                contended.increment();
+            }
+            waitNanos.add(wait);
+            holdNanos.add(hold);
+            long max;
+            while (wait > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, wait)) {
+                // another thread raised the maximum, compare again
+            }
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getAcquisitions() {
+            return acquisitions.sum();
+        }
+
+        @Override
+        public long getContendedAcquisitions() {
+            return contended.sum();
+        }
+
+        @Override
+        public double getTotalWaitMillis() {
+            return waitNanos.sum() / 1_000_000.0;
+        }
+
+        @Override
+        public double getTotalHoldMillis() {
+            return holdNanos.sum() / 1_000_000.0;
+        }
+
+        @Override
+        public double getMaxWaitMillis() {
+            return maxWaitNanos.get() / 1_000_000.0;
+        }
+
+        @Override
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        @Override
+        public void reset() {
+            acquisitions.reset();
+            contended.reset();
+            waitNanos.reset();
+            holdNanos.reset();
+            maxWaitNanos.set(0);
+            timeouts.reset();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package common;
+
+/** JMX view of one LockProfiler site, visible in JConsole/VisualVM under threading.basics:type=LockSite */
+public interface LockSiteMXBean {
+
+    String getName();
+
+    long getAcquisitions();
+
+    long getContendedAcquisitions();
+
+    double getTotalWaitMillis();
+
+    double getTotalHoldMillis();
+
+    double getMaxWaitMillis();
+
+    /** tryLock() calls that gave up */
+    long getTimeouts();
+
+    void reset();
+}
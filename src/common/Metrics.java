@@ -0,0 +1,319 @@
+package common;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Counters, gauges and latency histograms shared by all demos, plus a reporter that writes them to files
+ * at a fixed interval.
+ *
+ * A single "time taken" at the end of a run hides everything that happened during it: warm-up, a queue
+ * that slowly filled up, a pool that stopped growing. Demos register their metrics once (keep the returned
+ * object, the lookup is by name) and update them on the hot path: a Counter is a LongAdder, a Histogram
+ * records into a LatencyHistogram, so neither takes a lock. Gauges are only read by the reporter.
+ *
+ * The reporter runs if the JVM is started with -Dmetrics.csv=file and/or -Dmetrics.json=file, every
+ * -Dmetrics.interval milliseconds (default 1000), and once more at shutdown. Every snapshot appends:
+ * <pre>
+ *     csv:  time,metric,value                                one line per value, header once
+ *     json: {"time":..,"metrics":{"name":value,..}}          one object per line (JSON lines)
+ * </pre>
+ * time is milliseconds since the JVM started. A counter reports its total and its rate per second during
+ * the interval, a histogram the count, mean, p50, p90, p99 and max of the values recorded during the
+ * interval (values recorded while the snapshot is taken may be missed), a gauge its current value.
+ */
+public final class Metrics {
+
+    private static final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+    private static final long START_NANOS = System.nanoTime();
+    private static final boolean ENABLED = System.getProperty("metrics.csv") != null
+            || System.getProperty("metrics.json") != null;
+
+    static {
+        if (ENABLED) {
+            startReporter(Long.getLong("metrics.interval", 1000), System.getProperty("metrics.csv"),
+                    System.getProperty("metrics.json"));
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * True if the reporter runs. A constant, so metrics that are only written to the report can be skipped
+     * on hot paths without it, where the shared LongAdder cells and histogram buckets are pure overhead.
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    private interface Metric {
+        /** Adds this metric's values to the snapshot and starts the next interval */
+        void snapshot(String name, double intervalSeconds, Map<String, Double> values);
+    }
+
+    /** A count that only goes up, e.g. completed tasks */
+    public static final class Counter implements Metric {
+        private final LongAdder count = new LongAdder();
+        private long lastReported;
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+
+        @Override
+        public synchronized void snapshot(String name, double intervalSeconds, Map<String, Double> values) {
+            long total = count.sum();
+            values.put(name, (double) total);
+            values.put(name + ".rate", (total - lastReported) / intervalSeconds);
+            lastReported = total;
+        }
+    }
+
+    /** A value read when a snapshot is taken, e.g. a queue size */
+    public static final class Gauge implements Metric {
+        private final LongSupplier value;
+
+        private Gauge(LongSupplier value) {
+            this.value = value;
+        }
+
+        public long get() {
+            return value.getAsLong();
+        }
+
+        @Override
+        public void snapshot(String name, double intervalSeconds, Map<String, Double> values) {
+            values.put(name, (double) value.getAsLong());
+        }
+    }
+
+    /**
+     * Distribution of values, usually nanoseconds; reported per interval and kept in total.
+     *
+     * A thread may fetch the interval histogram right before a snapshot replaces it and record into it
+     * after the snapshot was taken. That value is missing from the interval's report, so the replaced
+     * histogram is only folded into the total one snapshot later, by when such stragglers are long done.
+     */
+    public static final class Histogram implements Metric {
+        private final AtomicReference<LatencyHistogram> interval = new AtomicReference<>(new LatencyHistogram());
+        private final LatencyHistogram total = new LatencyHistogram();
+        /** the interval reported by the last snapshot, still receiving late values; guarded by this */
+        private LatencyHistogram retired = new LatencyHistogram();
+        private final long unitNanos;
+
+        private Histogram(long unitNanos) {
+            this.unitNanos = unitNanos;
+        }
+
+        public void record(long value) {
+            interval.get().record(value);
+        }
+
+        /**
+         * Records the nanoseconds since start, a value of System.nanoTime().
+         *
+         * @return the recorded nanoseconds
+         */
+        public long recordSince(long startNanos) {
+            long elapsed = System.nanoTime() - startNanos;
+            record(elapsed);
+            return elapsed;
+        }
+
+        /** All values recorded up to the last snapshot plus the ones since */
+        public LatencyHistogram getTotal() {
+            LatencyHistogram copy = new LatencyHistogram();
+            synchronized (this) {
+                copy.add(total);
+                copy.add(retired);
+                copy.add(interval.get());
+            }
+            return copy;
+        }
+
+        @Override
+        public synchronized void snapshot(String name, double intervalSeconds, Map<String, Double> values) {
+            LatencyHistogram last = interval.getAndSet(new LatencyHistogram());
+            total.add(retired);
+            retired = last;
+            values.put(name + ".count", (double) last.count());
+            values.put(name + ".mean", last.mean() / unitNanos);
+            values.put(name + ".p50", (double) last.percentile(50) / unitNanos);
+            values.put(name + ".p90", (double) last.percentile(90) / unitNanos);
+            values.put(name + ".p99", (double) last.percentile(99) / unitNanos);
+            values.put(name + ".max", (double) last.max() / unitNanos);
+        }
+    }
+
+    /** The counter with the given name, created on first use */
+    public static Counter counter(String name) {
+        return get(name, Counter.class, Counter::new);
+    }
+
+    /**
+     * Registers a gauge; a gauge registered again under the same name replaces the old one, so a demo can
+     * point it at the queue or pool of its current run.
+     */
+    public static Gauge gauge(String name, LongSupplier value) {
+        Gauge gauge = new Gauge(value);
+        metrics.put(name, gauge);
+        return gauge;
+    }
+
+    /**
+     * Stops reporting the metric with the given name. The registry keeps what a gauge reads reachable, so
+     * demos remove their gauges once the queue or pool they point at is done.
+     */
+    public static void remove(String name) {
+        metrics.remove(name);
+    }
+
+    /** A histogram of nanoseconds, reported in milliseconds */
+    public static Histogram histogram(String name) {
+        return histogram(name, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /** A histogram whose reported values are divided by unit, e.g. 1 for plain counts */
+    public static Histogram histogram(String name, long unit) {
+        return get(name, Histogram.class, () -> new Histogram(unit));
+    }
+
+    private static <M extends Metric> M get(String name, Class<M> type, Supplier<M> factory) {
+        Metric metric = metrics.computeIfAbsent(name, key -> factory.get());
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is a " + metric.getClass().getSimpleName()
+                    + ", not a " + type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    /** Takes a snapshot of all metrics, sorted by name; this starts the next interval of every metric. */
+    private static Map<String, Double> snapshot(double intervalSeconds) {
+        Map<String, Double> values = new TreeMap<>();
+        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+            entry.getValue().snapshot(entry.getKey(), intervalSeconds, values);
+        }
+        return values;
+    }
+
+    /** Prints a snapshot to the console, one metric per line. Like every snapshot it starts a new interval. */
+    public static synchronized void print(PrintStream out) {
+        for (Map.Entry<String, Double> entry : snapshot(Reporter.intervalSeconds()).entrySet()) {
+            out.println(String.format(Locale.ROOT, "%-40s %14.3f", entry.getKey(), entry.getValue()));
+        }
+    }
+
+    private static synchronized void startReporter(long intervalMillis, String csv, String json) {
+        Reporter reporter = new Reporter(csv, json);
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(intervalMillis);
+                    reporter.report();
+                }
+            } catch (InterruptedException e) {
+                // JVM shutting down
+            }
+        }, "metrics-reporter");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(reporter::report, "metrics-final-report"));
+    }
+
+    /** Appends snapshots to the CSV and JSON files */
+    private static final class Reporter {
+        private static long lastSnapshotNanos = START_NANOS;
+
+        private final List<Writer> csv = new ArrayList<>();
+        private final List<Writer> json = new ArrayList<>();
+
+        Reporter(String csvFile, String jsonFile) {
+            try {
+                if (csvFile != null) {
+                    Writer writer = new FileWriter(csvFile, false);
+                    writer.write("time,metric,value\n");
+                    csv.add(writer);
+                }
+                if (jsonFile != null) {
+                    json.add(new FileWriter(jsonFile, false));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /** Seconds since the previous snapshot, which then counts as taken */
+        static double intervalSeconds() {
+            long now = System.nanoTime();
+            double seconds = Math.max(1, now - lastSnapshotNanos) / 1_000_000_000.0;
+            lastSnapshotNanos = now;
+            return seconds;
+        }
+
+        synchronized void report() {
+            Map<String, Double> values;
+            long time;
+            synchronized (Metrics.class) {
+                values = snapshot(intervalSeconds());
+                time = TimeUnit.NANOSECONDS.toMillis(lastSnapshotNanos - START_NANOS);
+            }
+            try {
+                for (Writer writer : csv) {
+                    StringBuilder lines = new StringBuilder();
+                    for (Map.Entry<String, Double> entry : values.entrySet()) {
+                        lines.append(time).append(',').append(entry.getKey()).append(',')
+                                .append(format(entry.getValue())).append('\n');
+                    }
+                    writer.write(lines.toString());
+                    writer.flush();
+                }
+                for (Writer writer : json) {
+                    StringBuilder line = new StringBuilder("{\"time\":").append(time).append(",\"metrics\":{");
+                    boolean first = true;
+                    for (Map.Entry<String, Double> entry : values.entrySet()) {
+                        if (!first) {
+                            line.append(',');
+                        }
+                        first = false;
+                        // metric names are plain identifiers with dots, nothing to escape
+                        line.append('"').append(entry.getKey()).append("\":").append(format(entry.getValue()));
+                    }
+                    writer.write(line.append("}}\n").toString());
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private static String format(double value) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                return "0";
+            }
+            return value == Math.rint(value) ? Long.toString((long) value) : String.format(Locale.ROOT, "%.3f", value);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package common;
+
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Prints where the JVM placed the instance fields of a class, in the spirit of OpenJDK's JOL tool.
+ *
+ * Source order says nothing about memory order: HotSpot groups fields by size and may put a field of a
+ * subclass into a gap of its superclass. To know whether two hot fields can share a cache line we have to
+ * ask the JVM, which sun.misc.Unsafe.objectFieldOffset() does. Fields within CACHE_LINE bytes of each other
+ * may share a line; whether they do depends on the object's address, which is only 8 byte aligned.
+ *
+ * Unsafe is not part of the API this project compiles against (Java 8 without internal classes), so it is
+ * looked up reflectively; if it is not available print() says so and prints nothing else.
+ */
+public final class ObjectLayout {
+
+    /** Most x86 and ARM server CPUs */
+    public static final int CACHE_LINE = 64;
+
+    private static final Object UNSAFE;
+    private static final Method OBJECT_FIELD_OFFSET;
+    /** Size of a reference: 4 with compressed oops (the default below 32GB heap), else 8 */
+    private static final int REFERENCE_SIZE;
+
+    static {
+        Object unsafe = null;
+        Method objectFieldOffset = null;
+        int referenceSize = 4;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            objectFieldOffset = unsafeClass.getMethod("objectFieldOffset", Field.class);
+            referenceSize = (Integer) unsafeClass.getMethod("arrayIndexScale", Class.class)
+                    .invoke(unsafe, Object[].class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+        }
+        UNSAFE = unsafe;
+        OBJECT_FIELD_OFFSET = objectFieldOffset;
+        REFERENCE_SIZE = referenceSize;
+    }
+
+    private ObjectLayout() {
+    }
+
+    private static long objectFieldOffset(Field field) {
+        try {
+            return (Long) OBJECT_FIELD_OFFSET.invoke(UNSAFE, field);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not get offset of " + field, e);
+        }
+    }
+
+    private static class FieldInfo {
+        private final Field field;
+        private final long offset;
+        private final int size;
+
+        FieldInfo(Field field, long offset) {
+            this.field = field;
+            this.offset = offset;
+            this.size = sizeOf(field.getType());
+        }
+    }
+
+    /** Offset of the named instance field, declared in the class or a superclass; -1 without Unsafe. */
+    public static long offset(Class<?> type, String fieldName) {
+        if (UNSAFE == null) {
+            return -1;
+        }
+        for (FieldInfo info : fields(type)) {
+            if (info.field.getName().equals(fieldName)) {
+                return info.offset;
+            }
+        }
+        throw new IllegalArgumentException(type.getName() + " has no instance field " + fieldName);
+    }
+
+    /** Whether the two fields are less than a cache line apart, i.e. may end up on the same line; true if unknown. */
+    public static boolean mayShareCacheLine(Class<?> type, String first, String second) {
+        return Math.abs(offset(type, first) - offset(type, second)) < CACHE_LINE;
+    }
+
+    /**
+     * Prints one line per field in memory order. Runs of padding fields (named p followed by digits) are
+     * folded into one line so padded classes stay readable.
+     */
+    public static void print(PrintStream out, Class<?> type) {
+        out.println(type.getName() + " object layout:");
+        if (UNSAFE == null) {
+            out.println("    (sun.misc.Unsafe not available)");
+            return;
+        }
+        List<FieldInfo> fields = fields(type);
+        if (fields.isEmpty()) {
+            // the header size is only visible through the offset of the first field
+            out.println("    (no instance fields: just the object header, 16 bytes with alignment)");
+            return;
+        }
+        out.println(String.format("    %6s %5s  %-40s %s", "offset", "size", "field", "declared in"));
+        long end = fields.get(0).offset;
+        out.println(String.format("    %6d %5d  %-40s", 0, end, "(object header)"));
+        for (int i = 0; i < fields.size(); i++) {
+            FieldInfo info = fields.get(i);
+            if (info.offset > end) {
+                out.println(String.format("    %6d %5d  %-40s", end, info.offset - end, "(gap)"));
+            }
+            if (isPadding(info.field)) {
+                int last = i;
+                while (last + 1 < fields.size() && isPadding(fields.get(last + 1).field)) {
+                    last++;
+                }
+                FieldInfo lastInfo = fields.get(last);
+                long size = lastInfo.offset + lastInfo.size - info.offset;
+                out.println(String.format("    %6d %5d  %-40s %s", info.offset, size,
+                        "(padding, " + (last - i + 1) + " fields)", info.field.getDeclaringClass().getSimpleName()));
+                end = lastInfo.offset + lastInfo.size;
+                i = last;
+            } else {
+                out.println(String.format("    %6d %5d  %-40s %s", info.offset, info.size,
+                        info.field.getType().getSimpleName() + " " + info.field.getName(),
+                        info.field.getDeclaringClass().getSimpleName()));
+                end = info.offset + info.size;
+            }
+        }
+        // objects are 8 byte aligned
+        long instanceSize = (end + 7) & ~7L;
+        out.println(String.format("    instance size: %d bytes, %d cache line(s) if aligned", instanceSize,
+                (instanceSize + CACHE_LINE - 1) / CACHE_LINE));
+    }
+
+    private static boolean isPadding(Field field) {
+        return field.getName().matches("p\\d+");
+    }
+
+    /** Instance fields of the class and its superclasses, ordered by offset */
+    private static List<FieldInfo> fields(Class<?> type) {
+        List<FieldInfo> fields = new ArrayList<>();
+        if (UNSAFE == null) {
+            return fields;
+        }
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    fields.add(new FieldInfo(field, objectFieldOffset(field)));
+                }
+            }
+        }
+        fields.sort(Comparator.comparingLong(info -> info.offset));
+        return fields;
+    }
+
+    /** Size of a field of the given type */
+    private static int sizeOf(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE_SIZE;
+    }
+}
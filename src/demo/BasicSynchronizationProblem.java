@@ -1,6 +1,8 @@
 package demo;
 
+import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 class Processor extends Thread {
 
@@ -31,9 +33,19 @@ class Processor extends Thread {
     }
 }
 
+/** Same output as Processor, but shutDown() wakes it up instead of waiting for the sleep to end */
+class ParkingProcessor extends StoppableService {
+
+    @Override
+    protected void doWork() {
+        System.out.println("Current thread: " + Thread.currentThread().toString());
+        pause(100, TimeUnit.MILLISECONDS);
+    }
+}
+
 public class BasicSynchronizationProblem {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         Processor processor1 = new Processor();
         processor1.start();
 
@@ -42,6 +54,42 @@ public class BasicSynchronizationProblem {
 
         // this runs on main thread
         processor1.shutDown();
+        processor1.join();
+
+        compareStopLatency(10);
+    }
+
+    /**
+     * Stops both kinds of processors at random moments and prints how long it took from the stop request until
+     * join() returned, measured the same way for both.
+     * The volatile flag is only checked after the sleep, so on average it takes half the sleep (50ms) and up to
+     * the full 100ms. The parking processor stops within microseconds.
+     */
+    private static void compareStopLatency(int rounds) throws InterruptedException {
+        Random random = new Random();
+        long pollingNanos = 0;
+        long parkingNanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            Processor polling = new Processor();
+            polling.start();
+            Thread.sleep(50 + random.nextInt(200));
+            long start = System.nanoTime();
+            polling.shutDown();
+            polling.join();
+            pollingNanos += System.nanoTime() - start;
+
+            ParkingProcessor parking = new ParkingProcessor();
+            parking.start();
+            Thread.sleep(50 + random.nextInt(200));
+            start = System.nanoTime();
+            parking.shutDown();
+            parking.awaitTermination();
+            parkingNanos += System.nanoTime() - start;
+        }
+        System.out.println("Average stop latency, volatile flag polling: "
+                + TimeUnit.NANOSECONDS.toMicros(pollingNanos / rounds) + "us");
+        System.out.println("Average stop latency, park/unpark: "
+                + TimeUnit.NANOSECONDS.toMicros(parkingNanos / rounds) + "us");
     }
 
     /**
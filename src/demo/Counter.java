@@ -0,0 +1,158 @@
+package demo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A counter that many threads increment and that is read now and then, e.g. a request metric.
+ *
+ * All implementations are correct under concurrency; they differ in how they behave when many threads
+ * increment at the same time (see SynchronizedKeyword.doWork(Counter, int, int)).
+ */
+interface Counter {
+
+    enum Kind {
+        SYNCHRONIZED, LOCK, ATOMIC_INTEGER, ATOMIC_LONG, LONG_ADDER, STRIPED;
+
+        Counter create() {
+            switch (this) {
+                case SYNCHRONIZED:
+                    return new SynchronizedCounter();
+                case LOCK:
+                    return new LockCounter();
+                case ATOMIC_INTEGER:
+                    return new AtomicIntegerCounter();
+                case ATOMIC_LONG:
+                    return new AtomicLongCounter();
+                case LONG_ADDER:
+                    return new LongAdderCounter();
+                default:
+                    return new StripedCounter();
+            }
+        }
+    }
+
+    void increment();
+
+    long get();
+}
+
+/** Same as SynchronizedKeyword.increment(): one monitor, threads take turns */
+class SynchronizedCounter implements Counter {
+    private long count;
+
+    @Override
+    public synchronized void increment() {
+        count++;
+    }
+
+    @Override
+    public synchronized long get() {
+        return count;
+    }
+}
+
+class LockCounter implements Counter {
+    private final ReentrantLock lock = new ReentrantLock();
+    private long count;
+
+    @Override
+    public void increment() {
+        lock.lock();
+        try {
+            count++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long get() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
+
+/** No lock, a compare-and-set loop; under contention threads retry instead of waiting */
+class AtomicIntegerCounter implements Counter {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    @Override
+    public long get() {
+        return count.get();
+    }
+}
+
+class AtomicLongCounter implements Counter {
+    private final AtomicLong count = new AtomicLong();
+
+    @Override
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    @Override
+    public long get() {
+        return count.get();
+    }
+}
+
+/** Spreads contended increments over several cells and sums them on read */
+class LongAdderCounter implements Counter {
+    private final LongAdder count = new LongAdder();
+
+    @Override
+    public void increment() {
+        count.increment();
+    }
+
+    @Override
+    public long get() {
+        return count.sum();
+    }
+}
+
+/**
+ * Like LongAdder but with a fixed cell per thread (picked by thread id) from the start.
+ *
+ * The cells live in one AtomicLongArray, 16 longs (128 bytes) apart, so no two cells share a cache line
+ * and threads incrementing different cells don't slow each other down through false sharing.
+ */
+class StripedCounter implements Counter {
+    private static final int PADDING = 16;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        cells = new AtomicLongArray(stripes * PADDING);
+        mask = stripes - 1;
+    }
+
+    @Override
+    public void increment() {
+        cells.getAndIncrement(((int) Thread.currentThread().getId() & mask) * PADDING);
+    }
+
+    @Override
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+}
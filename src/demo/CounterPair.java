@@ -0,0 +1,168 @@
+package demo;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Two counters in one object, each incremented by its own group of threads - like count and
+ * synchronizedCount in SynchronizedKeyword, which sit next to each other and are hammered by both threads.
+ *
+ * Even when no thread ever touches the other group's counter, two fields on the same cache line make every
+ * increment invalidate the line in the other cores' caches (false sharing). The kinds differ only in how far
+ * apart the two fields are; see FalseSharingBenchmark and common.ObjectLayout.
+ */
+interface CounterPair {
+
+    enum Kind {
+        /** Adjacent fields, as the JVM lays them out by itself */
+        UNPADDED,
+        /** 56 bytes of padding around each field, enough for a 64 byte cache line (see demo6.Sequence) */
+        PADDED,
+        /**
+         * 120 bytes around each field, what @Contended does. The CPU may prefetch the neighbouring line
+         * together with the one that is accessed, so 64 bytes can still be too close. The annotation
+         * itself is JDK internal since Java 9 and ignored without -XX:-RestrictContended, hence manual padding.
+         */
+        CONTENDED;
+
+        CounterPair create() {
+            switch (this) {
+                case UNPADDED:
+                    return new UnpaddedCounterPair();
+                case PADDED:
+                    return new PaddedCounterPair();
+                default:
+                    return new ContendedCounterPair();
+            }
+        }
+    }
+
+    void incrementFirst();
+
+    void incrementSecond();
+
+    long getFirst();
+
+    long getSecond();
+}
+
+class UnpaddedCounterPair implements CounterPair {
+    private static final AtomicLongFieldUpdater<UnpaddedCounterPair> FIRST =
+            AtomicLongFieldUpdater.newUpdater(UnpaddedCounterPair.class, "first");
+    private static final AtomicLongFieldUpdater<UnpaddedCounterPair> SECOND =
+            AtomicLongFieldUpdater.newUpdater(UnpaddedCounterPair.class, "second");
+
+    private volatile long first;
+    private volatile long second;
+
+    @Override
+    public void incrementFirst() {
+        FIRST.incrementAndGet(this);
+    }
+
+    @Override
+    public void incrementSecond() {
+        SECOND.incrementAndGet(this);
+    }
+
+    @Override
+    public long getFirst() {
+        return first;
+    }
+
+    @Override
+    public long getSecond() {
+        return second;
+    }
+}
+
+// Padding is done through superclasses because the JVM may reorder fields within one class.
+
+class PaddedCounterPairLeft {
+    long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class PaddedCounterPairFirst extends PaddedCounterPairLeft {
+    volatile long first;
+}
+
+class PaddedCounterPairMiddle extends PaddedCounterPairFirst {
+    long p8, p9, p10, p11, p12, p13, p14;
+}
+
+class PaddedCounterPairSecond extends PaddedCounterPairMiddle {
+    volatile long second;
+}
+
+class PaddedCounterPair extends PaddedCounterPairSecond implements CounterPair {
+    long p15, p16, p17, p18, p19, p20, p21;
+
+    private static final AtomicLongFieldUpdater<PaddedCounterPairFirst> FIRST =
+            AtomicLongFieldUpdater.newUpdater(PaddedCounterPairFirst.class, "first");
+    private static final AtomicLongFieldUpdater<PaddedCounterPairSecond> SECOND =
+            AtomicLongFieldUpdater.newUpdater(PaddedCounterPairSecond.class, "second");
+
+    @Override
+    public void incrementFirst() {
+        FIRST.incrementAndGet(this);
+    }
+
+    @Override
+    public void incrementSecond() {
+        SECOND.incrementAndGet(this);
+    }
+
+    @Override
+    public long getFirst() {
+        return first;
+    }
+
+    @Override
+    public long getSecond() {
+        return second;
+    }
+}
+
+class ContendedCounterPairLeft {
+    long p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11, p12, p13, p14, p15;
+}
+
+class ContendedCounterPairFirst extends ContendedCounterPairLeft {
+    volatile long first;
+}
+
+class ContendedCounterPairMiddle extends ContendedCounterPairFirst {
+    long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30;
+}
+
+class ContendedCounterPairSecond extends ContendedCounterPairMiddle {
+    volatile long second;
+}
+
+class ContendedCounterPair extends ContendedCounterPairSecond implements CounterPair {
+    long p31, p32, p33, p34, p35, p36, p37, p38, p39, p40, p41, p42, p43, p44, p45;
+
+    private static final AtomicLongFieldUpdater<ContendedCounterPairFirst> FIRST =
+            AtomicLongFieldUpdater.newUpdater(ContendedCounterPairFirst.class, "first");
+    private static final AtomicLongFieldUpdater<ContendedCounterPairSecond> SECOND =
+            AtomicLongFieldUpdater.newUpdater(ContendedCounterPairSecond.class, "second");
+
+    @Override
+    public void incrementFirst() {
+        FIRST.incrementAndGet(this);
+    }
+
+    @Override
+    public void incrementSecond() {
+        SECOND.incrementAndGet(this);
+    }
+
+    @Override
+    public long getFirst() {
+        return first;
+    }
+
+    @Override
+    public long getSecond() {
+        return second;
+    }
+}
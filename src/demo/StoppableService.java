@@ -0,0 +1,89 @@
+package demo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base class for a worker thread that runs until shutDown() is called.
+ *
+ * Polling a volatile flag between Thread.sleep() calls (see Processor) reacts to shutDown() only after the
+ * current sleep ends, and waking up just to check the flag costs CPU even if there is nothing to do.
+ * Here the worker waits with LockSupport.park() and shutDown() unparks it, so it stops right away. While
+ * parked without a timeout it uses no CPU at all until wakeUp() or shutDown() is called.
+ *
+ * Subclasses implement doWork() and wait only through pause() or awaitWork().
+ */
+abstract class StoppableService {
+
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    /** One round of work. Called again and again until the service is shut down. */
+    protected abstract void doWork();
+
+    void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        running = true;
+        thread = new Thread(this::loop, getClass().getSimpleName());
+        thread.start();
+    }
+
+    private void loop() {
+        while (running) {
+            doWork();
+        }
+    }
+
+    /** Asks the worker to stop and wakes it up if it is waiting in pause() or awaitWork(). */
+    void shutDown() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /** Wakes up a worker waiting in awaitWork(), e.g. because new work was queued. */
+    void wakeUp() {
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Waits for the given time unless the service is shut down first.
+     *
+     * @return false if the service is shutting down
+     */
+    protected boolean pause(long time, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        long remaining;
+        // park() may return early for no reason (spurious wake up), so check the deadline again
+        while (running && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+        return running;
+    }
+
+    /**
+     * Waits without timeout until wakeUp() or shutDown() is called. May also return spuriously, so callers
+     * check for work and call it again.
+     *
+     * @return false if the service is shutting down
+     */
+    protected boolean awaitWork() {
+        if (running) {
+            LockSupport.park(this);
+        }
+        return running;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /** Waits for the worker thread to end. Returns right away if the service was never started. */
+    void awaitTermination() throws InterruptedException {
+        Thread worker = thread;
+        if (worker != null) {
+            worker.join();
+        }
+    }
+}
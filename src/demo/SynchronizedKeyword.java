@@ -1,25 +1,80 @@
 package demo;
 
+import common.ObjectLayout;
 
-public class SynchronizedKeyword {
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** The two counters of SynchronizedKeyword's basic demo, so it can also run on PaddedCounts */
+interface Counts {
+    /** count++, not synchronized */
+    void incrementCount();
+
+    /** synchronizedCount++ while holding this object's monitor */
+    void increment();
+
+    int getCount();
+
+    int getSynchronizedCount();
+}
+
+public class SynchronizedKeyword implements Counts {
 
     private int count = 0;
     private int synchronizedCount = 0;
 
-    private synchronized void increment() {
+    @Override
+    public void incrementCount() {
+        count++;
+    }
+
+    @Override
+    public synchronized void increment() {
         synchronizedCount++;
     }
 
-    public static void main(String[] args) {
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public int getSynchronizedCount() {
+        return synchronizedCount;
+    }
+
+    /**
+     * After the basic demo every Counter.Kind is run with -Dthreads (default 2,4,8) threads doing
+     * -Dincrements (default 1000000) increments each.
+     */
+    public static void main(String[] args) throws InterruptedException {
         SynchronizedKeyword synchronizedKeyword = new SynchronizedKeyword();
-        synchronizedKeyword.doWork();
+        doWork(synchronizedKeyword);
+        // count and synchronizedCount end up next to each other, see CounterPair and FalseSharingBenchmark
+        ObjectLayout.print(System.out, SynchronizedKeyword.class);
+        // the same demo with count on a cache line of its own
+        doWork(new PaddedCounts());
+        ObjectLayout.print(System.out, PaddedCounts.class);
+
+        int increments = Integer.getInteger("increments", 1000000);
+        for (String threads : System.getProperty("threads", "2,4,8").split(",")) {
+            for (Counter.Kind kind : Counter.Kind.values()) {
+                // warm up so the JIT has compiled increment() before we measure
+                synchronizedKeyword.doWork(kind.create(), Integer.parseInt(threads.trim()), increments / 10);
+                double nanosPerOp = synchronizedKeyword.doWork(kind.create(), Integer.parseInt(threads.trim()),
+                        increments);
+                System.out.println(String.format("%-15s threads: %2s; %6.1f ns/op", kind, threads.trim(),
+                        nanosPerOp));
+            }
+        }
     }
 
-    private void doWork() {
+    private static void doWork(Counts counts) {
         Thread t1 = new Thread(() ->{
             for (int i = 0; i < 10000; i++) {
-                count++;
-                increment();
+                counts.incrementCount();
+                counts.increment();
             }
         });
         Thread t2 = new Thread(() ->{
@@ -30,11 +85,12 @@ public class SynchronizedKeyword {
                     temp = temp + 1;
                     count = temp;
                  */
-                count++;
+                counts.incrementCount();
                 // This method is synchronized and two threads can never enter execute it simultaneously
-                increment();
+                counts.increment();
             }
         });
+        long start = System.nanoTime();
         t1.start();
         t2.start();
 
@@ -45,6 +101,7 @@ public class SynchronizedKeyword {
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        long elapsed = System.nanoTime() - start;
 
         /** What should be the output?
          * At first glance it should be 20000 as both the threads are incrementing counter by 10000.
@@ -62,7 +119,84 @@ public class SynchronizedKeyword {
          * Volatile Keyword : No because two thread may still read the same value.
          * Synchronized Keyword : Preventing multiple threads to access same code. [However, it degrades performance]
          */
-        System.out.println("Count is: " + count);
-        System.out.println("Synchronized count is: " + synchronizedCount);
+        System.out.println(counts.getClass().getSimpleName() + " took "
+                + TimeUnit.NANOSECONDS.toMicros(elapsed) + "us");
+        System.out.println("Count is: " + counts.getCount());
+        System.out.println("Synchronized count is: " + counts.getSynchronizedCount());
+    }
+
+    /**
+     * Increments the counter from the given number of threads and checks that no increment was lost.
+     *
+     * @return average nanoseconds per increment, wall clock time divided by all increments of all threads
+     * @throws InterruptedException if interrupted while waiting for the threads; nothing is checked then
+     */
+    double doWork(Counter counter, int threads, int increments) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < increments; i++) {
+                    counter.increment();
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long expected = (long) threads * increments;
+        if (counter.get() != expected) {
+            throw new IllegalStateException(counter.getClass().getSimpleName() + " lost increments: expected "
+                    + expected + " but was " + counter.get());
+        }
+        return (double) elapsed / expected;
+    }
+}
+
+// Padding is done through superclasses because the JVM may reorder fields within one class.
+
+class PaddedCountsSynchronized {
+    int synchronizedCount;
+}
+
+class PaddedCountsMiddle extends PaddedCountsSynchronized {
+    long p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11, p12, p13, p14, p15;
+}
+
+class PaddedCountsCount extends PaddedCountsMiddle {
+    int count;
+}
+
+/**
+ * SynchronizedKeyword's two counters on separate cache lines.
+ *
+ * synchronizedCount is only written while holding the monitor, whose state is the object header, so the two
+ * stay together at the start. count is written by both threads without the lock on every iteration and gets
+ * padding on both sides, so its writes no longer invalidate the line that the monitor lives on.
+ */
+class PaddedCounts extends PaddedCountsCount implements Counts {
+    long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30;
+
+    @Override
+    public void incrementCount() {
+        count++;
+    }
+
+    @Override
+    public synchronized void increment() {
+        synchronizedCount++;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public int getSynchronizedCount() {
+        return synchronizedCount;
     }
 }
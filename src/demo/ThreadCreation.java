@@ -1,5 +1,9 @@
 package demo;
 
+import common.AsyncLog;
+
+import java.util.Arrays;
+
 class Runner extends Thread {
     @Override
     public void run() {
@@ -19,12 +23,14 @@ class Runner1 implements Runnable {
  * 1. Extending Thread class and starting it.
  * 2. Implementing Runnable interface and passing it to constructor of a thread.
  * 3. Anonymous Runnable to thread's constructor
+ *
+ * Run with "profile" as first argument to measure what each of them costs instead, see ThreadCreationProfiler.
  */
 public class ThreadCreation {
 
     public static void run(String implementation) {
         for (int i = 0; i < 10; i++) {
-            System.out.println(implementation + ": " + i);
+            AsyncLog.println(implementation + ": " + i);
             try {
                 Thread.sleep(100);
             } catch (InterruptedException e) {
@@ -33,7 +39,12 @@ public class ThreadCreation {
         }
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("profile")) {
+            ThreadCreationProfiler.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         // Extending thread class
         // This approach is usually avoided because the class would not be able to extend anything.
         Runner runner = new Runner();
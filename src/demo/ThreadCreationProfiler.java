@@ -0,0 +1,352 @@
+package demo;
+
+import common.LatencyHistogram;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What it costs to get code running on a new thread, for the styles of ThreadCreation and the alternatives.
+ *
+ * The four ThreadCreation styles all end up in Thread.start(), so they should cost the same; a pool skips
+ * thread creation entirely and only hands the task over, a virtual thread is created by the JVM without
+ * an OS thread. Three things are measured:
+ *
+ * latency - time from creating the thread (or submitting the task) until its first instruction runs, and
+ *           how much of that the caller itself spends in new Thread() + start(). Compared to a few task
+ *           durations this shows where the overhead stops being negligible.
+ * memory  - many threads blocked at the same time: reserved address space (VmSize), resident memory
+ *           (VmRSS) and heap per thread. Platform threads reserve their whole stack up front but only
+ *           touch a few pages of it, virtual thread stacks live on the heap.
+ * max     - how many blocked threads can be started before creation fails. Capped by -DmaxThreads since
+ *           running into the OS limit can hurt other processes on the machine; only run when asked for.
+ *
+ * Run with e.g. "latency,memory,max" as first argument and -Dcount=10000 -DmemoryThreads=1000
+ * -DstackSizes=0,256k,1m -DmaxThreads=20000. Stack size 0 means the JVM default (-Xss).
+ * Memory numbers come from /proc/self/status and are only available on Linux.
+ */
+public class ThreadCreationProfiler {
+
+    enum Kind {
+        /** Like Runner */
+        EXTENDS_THREAD,
+        /** Like Runner1 */
+        RUNNABLE,
+        ANONYMOUS_RUNNABLE,
+        LAMBDA,
+        /** Task submitted to an already started fixed thread pool */
+        POOLED,
+        /** Thread.startVirtualThread(), Java 21 and newer */
+        VIRTUAL;
+
+        /** Whether the stack size applies to this kind */
+        boolean isPlatform() {
+            return this != POOLED && this != VIRTUAL;
+        }
+    }
+
+    private static final long[] TASK_MICROS = {1, 10, 100, 1000, 10000};
+
+    public static void main(String[] args) throws Exception {
+        List<String> modes = Arrays.asList((args.length > 0 ? args[0] : "latency,memory").split(","));
+        int count = Integer.getInteger("count", 10000);
+        int memoryThreads = Integer.getInteger("memoryThreads", 1000);
+        int maxThreads = Integer.getInteger("maxThreads", 20000);
+        long[] stackSizes = parseSizes(System.getProperty("stackSizes", "0,256k,1m"));
+
+        List<Kind> kinds = new ArrayList<>(Arrays.asList(Kind.values()));
+        if (virtualThreadStarter() == null) {
+            System.out.println("Virtual threads need Java 21 or newer, skipping them.");
+            kinds.remove(Kind.VIRTUAL);
+        }
+        // the other platform styles create the same kind of thread and a pool only holds as many as it has workers
+        List<Kind> memoryKinds = new ArrayList<>(kinds);
+        memoryKinds.retainAll(Arrays.asList(Kind.LAMBDA, Kind.VIRTUAL));
+        System.out.println("Default stack size: " + formatBytes(defaultStackSize()));
+        System.out.println();
+
+        if (modes.contains("latency")) {
+            System.out.println("Time to first instruction (" + count + " threads or tasks, one after the other)");
+            for (Kind kind : kinds) {
+                for (long stackSize : kind.isPlatform() ? stackSizes : new long[]{0}) {
+                    measureLatency(kind, stackSize, count);
+                }
+            }
+        }
+
+        if (modes.contains("memory")) {
+            System.out.println("Memory per thread (" + memoryThreads + " threads blocked at the same time)");
+            for (Kind kind : memoryKinds) {
+                for (long stackSize : kind.isPlatform() ? stackSizes : new long[]{0}) {
+                    measureMemory(kind, stackSize, memoryThreads);
+                }
+            }
+            System.out.println();
+        }
+
+        if (modes.contains("max")) {
+            System.out.println("Maximum number of blocked threads (capped at " + maxThreads + ")");
+            for (Kind kind : memoryKinds) {
+                for (long stackSize : kind.isPlatform() ? stackSizes : new long[]{0}) {
+                    measureMaxThreads(kind, stackSize, maxThreads);
+                }
+            }
+        }
+    }
+
+    private static void measureLatency(Kind kind, long stackSize, int count) throws InterruptedException {
+        LatencyHistogram firstInstruction = new LatencyHistogram();
+        LatencyHistogram callerCost = new LatencyHistogram();
+        ExecutorService pool = kind == Kind.POOLED
+                ? Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) : null;
+        try {
+            for (int i = 0; i < count; i++) {
+                CountDownLatch running = new CountDownLatch(1);
+                long created = System.nanoTime();
+                Runnable task = () -> {
+                    firstInstruction.record(System.nanoTime() - created);
+                    running.countDown();
+                };
+                start(kind, stackSize, task, pool);
+                callerCost.record(System.nanoTime() - created);
+                // one at a time, so we measure the start and not how the threads compete for CPUs
+                running.await();
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }
+
+        System.out.println(describe(kind, stackSize));
+        System.out.print("    first instruction: ");
+        firstInstruction.printPercentiles(System.out, "us", 1000);
+        System.out.print("    new + start() / submit(): ");
+        callerCost.printPercentiles(System.out, "us", 1000);
+        StringBuilder overhead = new StringBuilder("    median overhead vs task duration:");
+        for (long taskMicros : TASK_MICROS) {
+            overhead.append(String.format(" %dus: %.1f%%;", taskMicros,
+                    100.0 * firstInstruction.percentile(50) / (taskMicros * 1000)));
+        }
+        System.out.println(overhead);
+    }
+
+    private static void measureMemory(Kind kind, long stackSize, int threads) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(threads);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable task = () -> {
+            started.countDown();
+            awaitQuietly(release);
+        };
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long vmSizeBefore = procStatus("VmSize");
+        long rssBefore = procStatus("VmRSS");
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+        int startedThreads = 0;
+        try {
+            for (; startedThreads < threads; startedThreads++) {
+                start(kind, stackSize, task, null);
+            }
+            started.await();
+            System.gc();
+            long vmSize = procStatus("VmSize") - vmSizeBefore;
+            long rss = procStatus("VmRSS") - rssBefore;
+            long heap = memory.getHeapMemoryUsage().getUsed() - heapBefore;
+            System.out.println(String.format("%-40s reserved: %10s; resident: %10s; heap: %10s",
+                    describe(kind, stackSize), perThread(vmSize, vmSizeBefore, threads),
+                    perThread(rss, rssBefore, threads), formatBytes(heap / threads)));
+        } finally {
+            release.countDown();
+            // threads that did start count down as well, wait for them before the next measurement
+            for (; startedThreads < threads; startedThreads++) {
+                started.countDown();
+            }
+            started.await();
+        }
+        // give the threads time to exit so their stacks are unmapped before the next measurement
+        Thread.sleep(500);
+    }
+
+    private static void measureMaxThreads(Kind kind, long stackSize, int maxThreads) throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable task = () -> awaitQuietly(release);
+        int started = 0;
+        String stoppedBy = "cap reached";
+        long start = System.nanoTime();
+        try {
+            for (; started < maxThreads; started++) {
+                start(kind, stackSize, task, null);
+            }
+        } catch (OutOfMemoryError e) {
+            // "unable to create native thread": the OS or the address space ran out
+            stoppedBy = e.getMessage();
+        } finally {
+            release.countDown();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-40s %8d threads in %6d ms (%s)", describe(kind, stackSize), started,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), stoppedBy));
+        Thread.sleep(500);
+    }
+
+    /** Starts the task the way the kind does it. */
+    private static void start(Kind kind, long stackSize, Runnable task, ExecutorService pool) {
+        switch (kind) {
+            case EXTENDS_THREAD:
+                new TaskThread(task, stackSize).start();
+                break;
+            case RUNNABLE:
+                new Thread(null, new TaskRunnable(task), "runnable", stackSize).start();
+                break;
+            case ANONYMOUS_RUNNABLE:
+                new Thread(null, new Runnable() {
+                    @Override
+                    public void run() {
+                        task.run();
+                    }
+                }, "anonymous", stackSize).start();
+                break;
+            case LAMBDA:
+                new Thread(null, () -> task.run(), "lambda", stackSize).start();
+                break;
+            case POOLED:
+                pool.execute(task);
+                break;
+            case VIRTUAL:
+                try {
+                    virtualThreadStarter().invoke(null, task);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Could not start virtual thread", e);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown kind: " + kind);
+        }
+    }
+
+    private static class TaskThread extends Thread {
+        private final Runnable task;
+
+        TaskThread(Runnable task, long stackSize) {
+            super(null, null, "extends-thread", stackSize);
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    private static class TaskRunnable implements Runnable {
+        private final Runnable task;
+
+        TaskRunnable(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    /**
+     * Thread.startVirtualThread() only exists since Java 21 while this project compiles for Java 8, so it
+     * is looked up reflectively. Returns null on older runtimes.
+     */
+    private static Method virtualThreadStarter() {
+        try {
+            return Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Value of a "kB" line in /proc/self/status in bytes, or -1 if there is no such file (not Linux). */
+    private static long procStatus(String key) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+                if (line.startsWith(key + ":")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException e) {
+            // not available
+        }
+        return -1;
+    }
+
+    /** -Xss / -XX:ThreadStackSize as the JVM sees it, in bytes; -1 if the JVM doesn't tell */
+    private static long defaultStackSize() {
+        try {
+            com.sun.management.HotSpotDiagnosticMXBean hotSpot =
+                    ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+            return Long.parseLong(hotSpot.getVMOption("ThreadStackSize").getValue()) * 1024;
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static String describe(Kind kind, long stackSize) {
+        return kind.isPlatform() ? kind + ", stack " + (stackSize == 0 ? "default" : formatBytes(stackSize))
+                : kind.toString();
+    }
+
+    private static String perThread(long delta, long before, int threads) {
+        return before < 0 ? "n/a" : formatBytes(delta / threads);
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 0) {
+            return "n/a";
+        }
+        if (bytes < 10 * 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 10 * 1024 * 1024) {
+            return bytes / 1024 + " KB";
+        }
+        return bytes / (1024 * 1024) + " MB";
+    }
+
+    /** Comma separated sizes with an optional k or m suffix */
+    private static long[] parseSizes(String sizes) {
+        String[] parts = sizes.split(",");
+        long[] result = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String size = parts[i].trim().toLowerCase();
+            long unit = 1;
+            if (size.endsWith("k")) {
+                unit = 1024;
+            } else if (size.endsWith("m")) {
+                unit = 1024 * 1024;
+            }
+            result[i] = Long.parseLong(unit == 1 ? size : size.substring(0, size.length() - 1)) * unit;
+        }
+        return result;
+    }
+}
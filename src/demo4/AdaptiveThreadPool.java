@@ -0,0 +1,111 @@
+package demo4;
+
+import common.AsyncLog;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread pool that picks its own size from how the tasks spend their time.
+ *
+ * The classic sizing rule is threads = cores * (1 + wait time / compute time): CPU bound tasks need about
+ * one thread per core, tasks that mostly wait (sleep, I/O) need many more threads to keep the cores busy.
+ * This pool measures both for every task, wall clock time with System.nanoTime() and CPU time through
+ * ThreadMXBean, and after every window of tasks sets its core pool size to what the rule says,
+ * kept within the given bounds.
+ *
+ * The measured ratio is smoothed over windows and the size only changes if it is off by more than 10%,
+ * otherwise the pool would keep resizing on noise. Note that time a thread waits for a free core also
+ * counts as wait time, so on an overloaded machine the rule overestimates; the upper bound caps that.
+ */
+class AdaptiveThreadPool extends ThreadPoolExecutor {
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final int window;
+    private final int cores = Runtime.getRuntime().availableProcessors();
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTimeSupported = threadBean.isCurrentThreadCpuTimeSupported();
+    private final ThreadLocal<long[]> taskStart = ThreadLocal.withInitial(() -> new long[2]);
+    private final LongAdder wallNanos = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+    private final AtomicLong completed = new AtomicLong();
+    private final List<Integer> chosenSizes = new ArrayList<>();
+    /** Smoothed wait/compute ratio, negative until the first window completed; guarded by this */
+    private double waitToCompute = -1;
+
+    /**
+     * @param window number of completed tasks after which the size is recalculated
+     */
+    AdaptiveThreadPool(int minThreads, int maxThreads, int window) {
+        // the queue is unbounded, so the pool never grows beyond the core size on its own; we set it instead
+        super(checkBounds(minThreads, maxThreads), maxThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        if (window < 1) {
+            // afterExecute() computes completed % window
+            throw new IllegalArgumentException("Window must be at least 1: " + window);
+        }
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.window = window;
+        if (cpuTimeSupported && !threadBean.isThreadCpuTimeEnabled()) {
+            threadBean.setThreadCpuTimeEnabled(true);
+        }
+        chosenSizes.add(minThreads);
+    }
+
+    /** Runs before super() so invalid bounds get our message instead of ThreadPoolExecutor's */
+    private static int checkBounds(int minThreads, int maxThreads) {
+        if (minThreads < 1 || maxThreads < minThreads) {
+            throw new IllegalArgumentException("Invalid bounds: " + minThreads + " - " + maxThreads);
+        }
+        return minThreads;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        long[] start = taskStart.get();
+        start[0] = System.nanoTime();
+        start[1] = cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        long[] start = taskStart.get();
+        wallNanos.add(System.nanoTime() - start[0]);
+        if (cpuTimeSupported) {
+            cpuNanos.add(threadBean.getCurrentThreadCpuTime() - start[1]);
+        }
+        if (completed.incrementAndGet() % window == 0) {
+            resize();
+        }
+    }
+
+    /** Applies the sizing rule to the last window. */
+    private synchronized void resize() {
+        long wall = wallNanos.sumThenReset();
+        // without CPU time we can't tell waiting from computing, so assume the tasks compute
+        long cpu = cpuTimeSupported ? Math.max(1, cpuNanos.sumThenReset()) : wall;
+        double ratio = Math.max(0, wall - cpu) / (double) cpu;
+        waitToCompute = waitToCompute < 0 ? ratio : 0.7 * waitToCompute + 0.3 * ratio;
+
+        int target = (int) Math.min(maxThreads, Math.max(minThreads, Math.round(cores * (1 + waitToCompute))));
+        int current = getCorePoolSize();
+        if (Math.abs(target - current) > current / 10) {
+            setCorePoolSize(target);
+            chosenSizes.add(target);
+            AsyncLog.println(String.format("Pool size %d -> %d (wait/compute %.1f)", current, target, waitToCompute));
+        }
+    }
+
+    /** Every core pool size the pool used, starting with the initial one */
+    synchronized List<Integer> getChosenSizes() {
+        return new ArrayList<>(chosenSizes);
+    }
+}
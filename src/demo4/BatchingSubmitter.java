@@ -0,0 +1,105 @@
+package demo4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups small tasks into batches before handing them to an executor.
+ *
+ * ExecutorService.submit() wraps every task in a FutureTask and offers it to the pool's queue, which all
+ * workers and the submitter contend on. Here N tasks become one Runnable passed to execute(), so there is
+ * one queue offer and no Future per batch. Completion is tracked with a single counter of outstanding
+ * batches instead of one Future per task.
+ *
+ * submit() and flush() are meant to be called from one submitting thread.
+ */
+class BatchingSubmitter {
+
+    private final Executor executor;
+    private final int batchSize;
+    private List<Runnable> batch;
+    private final AtomicLong pendingBatches = new AtomicLong();
+    private final Object completionLock = new Object();
+    private long batchesSubmitted;
+    private long nanosInExecute;
+
+    BatchingSubmitter(Executor executor, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+        }
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    void submit(Runnable task) {
+        batch.add(task);
+        if (batch.size() == batchSize) {
+            flush();
+        }
+    }
+
+    /** Hands over the current, possibly partial, batch. */
+    void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Runnable> tasks = batch;
+        batch = new ArrayList<>(batchSize);
+        pendingBatches.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    for (Runnable task : tasks) {
+                        // a failing task must not drop the rest of its batch
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                } finally {
+                    batchDone();
+                }
+            });
+        } catch (RuntimeException e) {
+            // rejected (saturated or shut down), the batch will never run
+            batchDone();
+            throw e;
+        } finally {
+            nanosInExecute += System.nanoTime() - start;
+        }
+        batchesSubmitted++;
+    }
+
+    private void batchDone() {
+        if (pendingBatches.decrementAndGet() == 0) {
+            synchronized (completionLock) {
+                completionLock.notifyAll();
+            }
+        }
+    }
+
+    /** Flushes the last batch and waits until every submitted task has run. */
+    void awaitCompletion() throws InterruptedException {
+        flush();
+        synchronized (completionLock) {
+            while (pendingBatches.get() > 0) {
+                completionLock.wait();
+            }
+        }
+    }
+
+    /** Number of units put on the executor's queue */
+    long getBatchesSubmitted() {
+        return batchesSubmitted;
+    }
+
+    /** Time the submitting thread spent inside Executor.execute(), i.e. offering to the contended queue */
+    long getNanosInExecute() {
+        return nanosInExecute;
+    }
+}
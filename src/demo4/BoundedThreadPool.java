@@ -0,0 +1,172 @@
+package demo4;
+
+import common.Metrics;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed size thread pool that stays bounded when tasks are submitted faster than they complete.
+ *
+ * Executors.newFixedThreadPool() queues into an unbounded LinkedBlockingQueue: submit() never waits, so a
+ * burst of 60000 tasks becomes 60000 queued FutureTasks and the last one waits for all the others. Here the
+ * queue has a capacity (ArrayBlockingQueue) or none at all (SynchronousQueue, a direct hand-off to an idle
+ * worker), and what happens when it is full is the rejection policy:
+ * <pre>
+ *     CALLER_RUNS  the submitting thread runs the task itself, so it can't submit more meanwhile
+ *     BLOCK        the submitting thread waits for space in the queue, like put() on a BlockingQueue
+ * </pre>
+ * Either way the submitter is slowed down to the pool's pace instead of the queue growing, which keeps
+ * memory flat and bounds how long a task waits.
+ *
+ * Every pool publishes under its name (see common.Metrics): name.queue (current depth), name.depth (depth
+ * seen by each submission), name.wait (time from execute() until a thread starts the task, in ms),
+ * name.callerRuns (tasks the caller ran) and name.blocked (time submitters waited for space, in ms). Tasks
+ * the caller runs never waited for a thread, so they are not part of name.wait.
+ *
+ * To time the wait, execute() wraps every task. getQueue() therefore holds the wrappers, not the submitted
+ * tasks; shutdownNow() unwraps them again.
+ */
+class BoundedThreadPool extends ThreadPoolExecutor {
+
+    enum QueueKind {
+        ARRAY {
+            @Override
+            BlockingQueue<Runnable> create(int capacity) {
+                return new ArrayBlockingQueue<>(capacity);
+            }
+        },
+        /** No capacity: a task is only accepted if a worker is waiting for it right now */
+        SYNCHRONOUS {
+            @Override
+            BlockingQueue<Runnable> create(int capacity) {
+                return new SynchronousQueue<>();
+            }
+        };
+
+        abstract BlockingQueue<Runnable> create(int capacity);
+    }
+
+    enum Rejection {
+        CALLER_RUNS, BLOCK
+    }
+
+    private final String name;
+    private final Metrics.Histogram depth;
+    private final Metrics.Histogram wait;
+    private final Metrics.Counter callerRuns;
+    private final Metrics.Histogram blocked;
+
+    /**
+     * @param name prefix of the metrics of this pool, e.g. "bounded.array"
+     * @param capacity queue capacity, ignored for SYNCHRONOUS
+     */
+    BoundedThreadPool(String name, int threads, QueueKind queueKind, int capacity, Rejection rejection) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS, queueKind.create(capacity));
+        this.name = name;
+        this.depth = Metrics.histogram(name + ".depth", 1);
+        this.wait = Metrics.histogram(name + ".wait");
+        this.callerRuns = Metrics.counter(name + ".callerRuns");
+        this.blocked = Metrics.histogram(name + ".blocked");
+        Metrics.gauge(name + ".queue", () -> getQueue().size());
+        // the handlers update this pool's metrics, so they can't be passed to super()
+        setRejectedExecutionHandler(rejection == Rejection.CALLER_RUNS ? new CallerRuns() : new BlockingSubmit());
+    }
+
+    @Override
+    protected void terminated() {
+        Metrics.remove(name + ".queue");
+    }
+
+    /** Returns the tasks as submitted, e.g. the FutureTasks of submit(), not the wrappers in the queue */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = new ArrayList<>();
+        for (Runnable queued : super.shutdownNow()) {
+            tasks.add(queued instanceof QueuedTask ? ((QueuedTask) queued).task : queued);
+        }
+        return tasks;
+    }
+
+    /** Every task, including the FutureTasks of submit(), passes through here; wrap it to time its wait. */
+    @Override
+    public void execute(Runnable command) {
+        depth.record(getQueue().size());
+        super.execute(new QueuedTask(command));
+    }
+
+    private class QueuedTask implements Runnable {
+        private final Runnable task;
+        private final long queuedAt = System.nanoTime();
+
+        QueuedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            wait.recordSince(queuedAt);
+            task.run();
+        }
+    }
+
+    /** Like ThreadPoolExecutor.CallerRunsPolicy, but counted */
+    private class CallerRuns implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            callerRuns.increment();
+            // skip the wrapper, it would record a wait of about zero
+            if (task instanceof QueuedTask) {
+                ((QueuedTask) task).task.run();
+            } else {
+                task.run();
+            }
+        }
+    }
+
+    /** Waits for space in the queue; for a SynchronousQueue that is until a worker takes the task. */
+    private class BlockingSubmit implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            long start = System.nanoTime();
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for queue space", e);
+            } finally {
+                blocked.recordSince(start);
+            }
+            // shutdown() may have run while we waited; then nobody is guaranteed to take the task any more
+            if (executor.isShutdown() && executor.remove(task)) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+        }
+    }
+
+    /** Prints the queue depth, wait and rejection figures since the pool was created. */
+    void printSummary(PrintStream out) {
+        out.println(name + " (" + getQueue().getClass().getSimpleName() + ", " + getMaximumPoolSize()
+                + " threads): ran by caller: " + callerRuns.get() + "; largest pool size: " + getLargestPoolSize());
+        out.print("  queue depth at submit: ");
+        depth.getTotal().printPercentiles(out, "", 1);
+        out.print("  wait for a thread: ");
+        wait.getTotal().printPercentiles(out, "ms", 1_000_000);
+        out.print("  submitter blocked: ");
+        blocked.getTotal().printPercentiles(out, "ms", 1_000_000);
+    }
+}
@@ -0,0 +1,66 @@
+package demo4;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A java.util.Random that counts how often its compare-and-set on the shared seed fails.
+ *
+ * Random is thread safe because next() updates the seed with a CAS loop: read the seed, compute the next one,
+ * and retry if another thread changed it in between. With many threads sharing one instance most of the time
+ * goes into those retries. This class copies that loop with the same linear congruential generator, so the
+ * values are equally random, and counts every failed CAS. Only failures touch the counter, but it is still
+ * extra work, so the Worker stages use a plain Random and RandomSourceBenchmark runs this one on its own.
+ */
+class CountingRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    /** null while Random's constructor calls setSeed(), initialized right after */
+    private AtomicLong seed;
+    private final LongAdder casRetries = new LongAdder();
+
+    CountingRandom() {
+        this(System.nanoTime());
+    }
+
+    CountingRandom(long seed) {
+        this.seed = new AtomicLong(scramble(seed));
+    }
+
+    private static long scramble(long seed) {
+        return (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        super.setSeed(seed);
+        if (this.seed != null) {
+            this.seed.set(scramble(seed));
+        }
+    }
+
+    @Override
+    protected int next(int bits) {
+        long oldSeed;
+        long nextSeed;
+        while (true) {
+            oldSeed = seed.get();
+            nextSeed = (oldSeed * MULTIPLIER + ADDEND) & MASK;
+            if (seed.compareAndSet(oldSeed, nextSeed)) {
+                break;
+            }
+            casRetries.increment();
+        }
+        return (int) (nextSeed >>> (48 - bits));
+    }
+
+    /** Failed compare-and-set attempts since creation */
+    long getCasRetries() {
+        return casRetries.sum();
+    }
+}
@@ -0,0 +1,109 @@
+package demo4;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Append-only storage of primitive ints.
+ *
+ * A List<Integer> keeps a reference per element and every value outside the Integer cache (-128..127)
+ * is a separate object on the heap. Storing plain ints avoids both, so adding an element allocates
+ * nothing except when the backing storage has to grow.
+ *
+ * Implementations are not thread safe; callers guard them just like the ArrayLists in Worker.
+ */
+interface IntStore {
+
+    enum Kind {
+        /** Growable int[] on the heap */
+        HEAP,
+        /** Growable direct IntBuffer, i.e. memory outside the Java heap that the GC never scans */
+        DIRECT;
+
+        IntStore create() {
+            return this == HEAP ? new HeapIntStore() : new DirectIntStore();
+        }
+    }
+
+    void add(int value);
+
+    int get(int index);
+
+    int size();
+
+    void clear();
+}
+
+class HeapIntStore implements IntStore {
+
+    private int[] values = new int[16];
+    private int size;
+
+    @Override
+    public void add(int value) {
+        if (size == values.length) {
+            int[] grown = new int[values.length * 2];
+            System.arraycopy(values, 0, grown, 0, size);
+            values = grown;
+        }
+        values[size++] = value;
+    }
+
+    @Override
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return values[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** Keeps the backing array so a reused store does not allocate again. */
+    @Override
+    public void clear() {
+        size = 0;
+    }
+}
+
+class DirectIntStore implements IntStore {
+
+    private IntBuffer values = allocate(16);
+
+    private static IntBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    @Override
+    public void add(int value) {
+        if (!values.hasRemaining()) {
+            IntBuffer grown = allocate(values.capacity() * 2);
+            values.flip();
+            grown.put(values);
+            values = grown;
+        }
+        values.put(value);
+    }
+
+    @Override
+    public int get(int index) {
+        if (index >= values.position()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + values.position());
+        }
+        return values.get(index);
+    }
+
+    @Override
+    public int size() {
+        return values.position();
+    }
+
+    @Override
+    public void clear() {
+        values.clear();
+    }
+}
@@ -1,8 +1,94 @@
 package demo4;
 
+import common.LockOrderGraph;
+import common.LockProfiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Worker.main() by default. The other modes show what happens when code takes both of two locks
+ * (see Worker.transfer()):
+ *
+ * order    - one thread transfers in both directions. It can't deadlock with itself, but with
+ *            -Dlock.order=true LockOrderGraph sees both lock orders and reports the cycle with the stack
+ *            traces of both nestings.
+ * deadlock - two threads transfer in opposite directions with lock(). Sooner or later each holds one lock
+ *            and waits for the other; the deadlock watchdog reports it and the demo gives up on them.
+ * trylock  - the same two threads with tryLock() and a timeout (-DtimeoutMillis, default 1). They back off
+ *            instead of hanging and the number of values is checked afterwards.
+ */
 public class MultipleLocks {
 
-    public static void main(String[] args) {
-        new Worker().main();
+    private static final int TRANSFERS = 100_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        String mode = args.length > 0 ? args[0] : "worker";
+        switch (mode) {
+            case "order":
+                order();
+                break;
+            case "deadlock":
+                opposingTransfers(-1);
+                break;
+            case "trylock":
+                opposingTransfers(Long.getLong("timeoutMillis", 1));
+                break;
+            default:
+                new Worker().main();
+        }
+    }
+
+    private static void order() {
+        if (!LockOrderGraph.isEnabled()) {
+            System.out.println("Lock order tracking is disabled, run with -Dlock.order=true");
+            return;
+        }
+        Worker worker = new Worker(0);
+        worker.fillPending(10);
+        worker.transfer(Worker.Direction.ONE_TO_TWO, -1);
+        worker.transfer(Worker.Direction.TWO_TO_ONE, -1);
+        System.out.println(LockOrderGraph.getCycles().size() + " lock order cycle(s) found");
+    }
+
+    /** Two threads moving values back and forth; a negative timeout means plain lock() */
+    private static void opposingTransfers(long timeoutMillis) throws InterruptedException {
+        Worker worker = new Worker(0);
+        worker.fillPending(1000);
+        int before = worker.pendingTotal();
+        LockOrderGraph.startDeadlockWatchdog(100, System.out);
+
+        List<Thread> threads = new ArrayList<>();
+        for (Worker.Direction direction : Worker.Direction.values()) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < TRANSFERS; i++) {
+                    worker.transfer(direction, timeoutMillis);
+                }
+            }, direction.name());
+            // a deadlocked thread never ends, it must not keep the JVM alive
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+        long start = System.currentTimeMillis();
+        threads.forEach(Thread::start);
+        // wait until the transfers are done, the watchdog found a deadlock or it's clear they never end
+        long deadline = start + 30_000;
+        for (Thread thread : threads) {
+            while (thread.isAlive() && LockOrderGraph.getDeadlocksReported() == 0
+                    && System.currentTimeMillis() < deadline) {
+                thread.join(100);
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        if (LockOrderGraph.getDeadlocksReported() > 0 || threads.stream().anyMatch(Thread::isAlive)) {
+            System.out.println("Threads are stuck after " + elapsed + "ms, giving up on them");
+            return;
+        }
+        System.out.println(String.format("%d transfers per direction in %dms, %d backoffs, values before: %d, "
+                + "after: %d", TRANSFERS, elapsed, worker.transferBackoffs(), before, worker.pendingTotal()));
+        if (LockProfiler.isEnabled()) {
+            LockProfiler.printSummary(System.out);
+        }
     }
 }
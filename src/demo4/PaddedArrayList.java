@@ -0,0 +1,83 @@
+package demo4;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+// Padding is done through superclasses because the JVM may reorder fields within one class.
+
+abstract class PaddedArrayListLeft<E> extends AbstractList<E> {
+    long p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11, p12, p13, p14, p15;
+}
+
+abstract class PaddedArrayListFields<E> extends PaddedArrayListLeft<E> {
+    Object[] elementData = new Object[10];
+    int size;
+}
+
+/**
+ * An array backed list whose size and elementData sit between two blocks of padding, like CounterPair.PADDED.
+ *
+ * ArrayList can't be padded in front: its superclasses' fields always come first, so size and modCount sit
+ * right behind the object header, next to the end of whatever was allocated before it. Here they are
+ * declared after a padding superclass, and the padding after them keeps the next object away. modCount is
+ * not updated since it would be the one field left near the header, so iterators are not fail-fast.
+ */
+class PaddedArrayList<E> extends PaddedArrayListFields<E> implements RandomAccess {
+    long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        checkIndex(index, size);
+        return (E) elementData[index];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E set(int index, E element) {
+        checkIndex(index, size);
+        E old = (E) elementData[index];
+        elementData[index] = element;
+        return old;
+    }
+
+    @Override
+    public void add(int index, E element) {
+        checkIndex(index, size + 1);
+        if (size == elementData.length) {
+            elementData = Arrays.copyOf(elementData, size + (size >> 1) + 1);
+        }
+        System.arraycopy(elementData, index, elementData, index + 1, size - index);
+        elementData[index] = element;
+        size++;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E remove(int index) {
+        checkIndex(index, size);
+        E old = (E) elementData[index];
+        System.arraycopy(elementData, index + 1, elementData, index, size - index - 1);
+        elementData[--size] = null;
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(elementData, 0, size, null);
+        size = 0;
+    }
+
+    /** limit is size for existing elements and size + 1 for an insert position */
+    private void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package demo4;
+
+/**
+ * A lock object that takes up two cache lines.
+ *
+ * Worker allocates lock1 and lock2 one after the other, so two plain Objects end up 16 bytes apart and
+ * every monitor enter/exit on one of them (a CAS on its header) invalidates the other one's cache line too.
+ * The unused longs push whatever is allocated next at least 120 bytes away from the header.
+ *
+ * Unlike PaddedArrayList there is no padding superclass in front: the state of a monitor is the object
+ * header itself, and the header always comes first, ahead of any superclass field. Leading space only comes
+ * from the object before it, which is why Worker allocates lock2 right after lock1 and list1 right after it.
+ */
+class PaddedLock {
+    long p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11, p12, p13, p14, p15;
+}
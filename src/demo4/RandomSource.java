@@ -0,0 +1,17 @@
+package demo4;
+
+/**
+ * Where the Worker stages get their random values from.
+ *
+ * The stages are supposed to measure locking strategies, but a single shared java.util.Random is a
+ * synchronization point of its own (see CountingRandom). The other sources give every thread its own
+ * generator so nothing is shared.
+ */
+enum RandomSource {
+    /** One Random shared by all threads, contended through a CAS on its seed */
+    SHARED,
+    /** ThreadLocalRandom.current(), one generator per thread built into the JDK */
+    THREAD_LOCAL,
+    /** A SplittableRandom per thread, split from a common root so sequences are independent */
+    SPLITTABLE
+}
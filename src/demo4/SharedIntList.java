@@ -0,0 +1,197 @@
+package demo4;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A growing list of ints that many threads read and some threads append to.
+ *
+ * With an exclusive lock readers wait for each other although reading never conflicts with reading.
+ * The implementations differ only in how readers and writers are kept apart.
+ */
+interface SharedIntList {
+
+    enum Kind {
+        /** One monitor for everything, like lockStageOne() */
+        EXCLUSIVE,
+        /** ReentrantReadWriteLock: any number of readers at once, writers alone */
+        READ_WRITE,
+        /** StampedLock: readers don't lock at all and only retry under a read lock if a write got in between */
+        STAMPED;
+
+        SharedIntList create() {
+            switch (this) {
+                case EXCLUSIVE:
+                    return new ExclusiveIntList();
+                case READ_WRITE:
+                    return new ReadWriteIntList();
+                default:
+                    return new StampedIntList();
+            }
+        }
+    }
+
+    void add(int value);
+
+    int size();
+
+    /** Sum of the last count values (fewer if the list is shorter), a read whose cost doesn't grow with the list */
+    long recentSum(int count);
+
+    void clear();
+}
+
+/** The unsynchronized data shared by the implementations. Values are never removed, arrays only replaced. */
+class IntListData {
+    int[] values = new int[16];
+    int size;
+
+    void add(int value) {
+        if (size == values.length) {
+            int[] grown = new int[values.length * 2];
+            System.arraycopy(values, 0, grown, 0, size);
+            values = grown;
+        }
+        values[size++] = value;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    static long sum(int[] values, int size, int count) {
+        long sum = 0;
+        for (int i = Math.max(0, size - count); i < size; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+}
+
+class ExclusiveIntList implements SharedIntList {
+    private final IntListData data = new IntListData();
+
+    @Override
+    public synchronized void add(int value) {
+        data.add(value);
+    }
+
+    @Override
+    public synchronized int size() {
+        return data.size;
+    }
+
+    @Override
+    public synchronized long recentSum(int count) {
+        return IntListData.sum(data.values, data.size, count);
+    }
+
+    @Override
+    public synchronized void clear() {
+        data.clear();
+    }
+}
+
+class ReadWriteIntList implements SharedIntList {
+    private final IntListData data = new IntListData();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Override
+    public void add(int value) {
+        lock.writeLock().lock();
+        try {
+            data.add(value);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return data.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long recentSum(int count) {
+        lock.readLock().lock();
+        try {
+            return IntListData.sum(data.values, data.size, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            data.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
+
+class StampedIntList implements SharedIntList {
+    private final IntListData data = new IntListData();
+    private final StampedLock lock = new StampedLock();
+
+    @Override
+    public void add(int value) {
+        long stamp = lock.writeLock();
+        try {
+            data.add(value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int size = data.size;
+        if (lock.validate(stamp)) {
+            return size;
+        }
+        stamp = lock.readLock();
+        try {
+            return data.size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public long recentSum(int count) {
+        long stamp = lock.tryOptimisticRead();
+        // a writer may replace the array or change size meanwhile; reading an old array is harmless, but
+        // size must not run past the array we actually read
+        int[] values = data.values;
+        int size = Math.min(data.size, values.length);
+        long sum = IntListData.sum(values, size, count);
+        if (lock.validate(stamp)) {
+            return sum;
+        }
+        stamp = lock.readLock();
+        try {
+            return IntListData.sum(data.values, data.size, count);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            data.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package demo4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only list that spreads writes over several independently locked segments (stripes).
+ *
+ * With a single lock (see Worker.lockStageOne) or a Vector, every add() from every thread queues up on
+ * the same monitor. Here a thread always appends to the stripe picked from its thread id, so two threads
+ * only contend if they happen to map to the same stripe. The segments are merged only when someone asks
+ * for size() or the contents, which is rare compared to writes.
+ *
+ * Elements of one thread keep their relative order; there is no global order between threads.
+ */
+class StripedList<E> {
+
+    private static class Stripe<E> {
+        private final List<E> elements = new ArrayList<>();
+    }
+
+    private final Stripe<E>[] stripes;
+    private final int mask;
+
+    StripedList() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    @SuppressWarnings("unchecked")
+    StripedList(int minimumStripes) {
+        // round up to a power of two so the stripe can be picked with a mask instead of a modulo
+        int count = Integer.highestOneBit(Math.max(1, minimumStripes - 1)) << 1;
+        stripes = (Stripe<E>[]) new Stripe<?>[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        mask = count - 1;
+    }
+
+    void add(E element) {
+        Stripe<E> stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        synchronized (stripe) {
+            stripe.elements.add(element);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe<E> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.elements.size();
+            }
+        }
+        return size;
+    }
+
+    /** Copies all segments into one list. Writes racing with this call may or may not be included. */
+    List<E> toList() {
+        List<E> merged = new ArrayList<>();
+        for (Stripe<E> stripe : stripes) {
+            synchronized (stripe) {
+                merged.addAll(stripe.elements);
+            }
+        }
+        return merged;
+    }
+
+    void clear() {
+        for (Stripe<E> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.elements.clear();
+            }
+        }
+    }
+}
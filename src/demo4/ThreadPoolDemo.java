@@ -1,7 +1,16 @@
 package demo4;
 
+import common.AsyncLog;
+import common.Metrics;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 
@@ -17,57 +26,205 @@ import java.util.concurrent.TimeUnit;
  * We use Java's ExecutorService for this.
  */
 class Processor implements Runnable {
+    private static final Metrics.Counter COMPLETED = Metrics.counter("processor.completed");
+    private static final Metrics.Histogram DURATION = Metrics.histogram("processor.duration");
+
     private int id;
+    private long sleepMillis;
 
     Processor(int id) {
+        this(id, 1);
+    }
+
+    Processor(int id, long sleepMillis) {
         this.id = id;
+        this.sleepMillis = sleepMillis;
     }
 
     @Override
     public void run() {
-        System.out.println("Starting: " + id);
+        // AsyncLog instead of System.out so the pool threads don't queue up on the console lock
+        long start = System.nanoTime();
+        AsyncLog.println("Starting: " + id);
         try {
-            Thread.sleep(1);
+            Thread.sleep(sleepMillis);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        System.out.println("Completed: " + id);
+        AsyncLog.println("Completed: " + id);
+        // only reported to the metrics files, so don't make every pool thread touch them otherwise
+        if (Metrics.isEnabled()) {
+            DURATION.recordSince(start);
+            COMPLETED.increment();
+        }
     }
 }
 
 public class ThreadPoolDemo {
 
+    private static final int TASKS = 60000;
+    private static final Metrics.Histogram RUN_TIME = Metrics.histogram("threadpool.run");
+
+    /**
+     * Modes can be picked on the command line, e.g. "fixed virtual forkjoin". Without arguments all of them run.
+     * The ForkJoinPool parallelism is set with -Dparallelism=N (defaults to number of cores).
+     * The batched mode is configured with -DbatchSizes=1,10,100 and -DtaskSleep=0 (milliseconds).
+     * The adaptive mode sizes its pool between -DadaptiveMin (default 2) and -DadaptiveMax (default 256) threads.
+     * The bounded mode runs 2 threads for every combination of -DboundedQueues=array,synchronous and
+     * -DrejectionPolicies=caller_runs,block, array queues hold -DqueueCapacity tasks (default 100).
+     * With -Dmetrics.csv=file or -Dmetrics.json=file task durations, completions and the pool's queue size
+     * and active threads are written once per second (see common.Metrics).
+     */
     public static void main(String[] args) {
-        long start = System.currentTimeMillis();
-        for (int i = 0; i < 30000; i++) {
-            Thread t1 = new Thread(new Processor(i * 2));
-            Thread t2 = new Thread(new Processor(i * 2 + 1));
-            t1.start();
-            t2.start();
-
-            try {
-                t1.join();
-                t2.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        List<String> modes = args.length == 0
+                ? Arrays.asList("threads", "fixed", "virtual", "forkjoin", "batched", "adaptive",
+                "bounded") : Arrays.asList(args);
+
+        if (modes.contains("threads")) {
+            long start = System.nanoTime();
+            for (int i = 0; i < TASKS / 2; i++) {
+                Thread t1 = new Thread(new Processor(i * 2));
+                Thread t2 = new Thread(new Processor(i * 2 + 1));
+                t1.start();
+                t2.start();
+
+                try {
+                    t1.join();
+                    t2.join();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
             }
+            long elapsed = RUN_TIME.recordSince(start);
+            AsyncLog.flush();
+            // This takes around 45 seconds to complete.
+            System.out.println("Time taken: " + TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
+
+        if (modes.contains("fixed")) {
+            // Creates a thread pool of fixed size
+            // executor has their own managerial thread
+            // This takes around 37 seconds to complete.
+            runOnExecutor("Fixed thread pool", Executors.newFixedThreadPool(2));
         }
-        long end = System.currentTimeMillis();
-        // This takes around 45 seconds to complete.
-        System.out.println("Time taken: " + (end - start));
-
-        // Creates a thread pool of fixed size
-        // executor has their own managerial thread
-        start = System.currentTimeMillis();
-        ExecutorService executor = Executors.newFixedThreadPool(2);
-        for (int i = 0; i < 60000; i++) {
+
+        if (modes.contains("virtual")) {
+            /**
+             * Virtual threads (Java 21+) are cheap enough to create one per task. A sleeping virtual thread
+             * gives its carrier thread back, so all 60000 sleeps overlap and this takes roughly sleep time
+             * plus scheduling overhead.
+             */
+            ExecutorService executor = newVirtualThreadPerTaskExecutor();
+            if (executor == null) {
+                System.out.println("Virtual threads need Java 21 or newer, skipping.");
+            } else {
+                runOnExecutor("Virtual thread per task", executor);
+            }
+        }
+
+        if (modes.contains("forkjoin")) {
+            /**
+             * ForkJoinPool is meant for CPU bound work. A sleeping task still occupies one of its workers,
+             * so this scales with parallelism: about TASKS / parallelism milliseconds.
+             */
+            int parallelism = Integer.getInteger("parallelism", Runtime.getRuntime().availableProcessors());
+            runOnExecutor("ForkJoinPool(" + parallelism + ")", new ForkJoinPool(parallelism));
+        }
+
+        if (modes.contains("batched")) {
+            /**
+             * With sleeping tasks the pool is always the bottleneck, so by default the tasks don't sleep here.
+             * Then the per task submission overhead (FutureTask, queue offer/poll) becomes visible and
+             * bigger batches mean fewer queue operations.
+             */
+            long taskSleep = Long.getLong("taskSleep", 0);
+            String[] batchSizes = System.getProperty("batchSizes", "1,10,100,1000").split(",");
+            for (String batchSize : batchSizes) {
+                runBatched(Integer.parseInt(batchSize.trim()), taskSleep);
+            }
+        }
+
+        if (modes.contains("adaptive")) {
+            /**
+             * Starts as small as the fixed pool, notices that the tasks mostly sleep and grows until
+             * the sleeps overlap.
+             */
+            AdaptiveThreadPool executor = new AdaptiveThreadPool(Integer.getInteger("adaptiveMin", 2),
+                    Integer.getInteger("adaptiveMax", 256), 500);
+            long start = System.nanoTime();
+            runOnExecutor("Adaptive thread pool", executor);
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            System.out.println("Pool sizes chosen: " + executor.getChosenSizes()
+                    + "; tasks/s: " + TASKS * 1_000_000_000L / elapsed);
+        }
+
+        if (modes.contains("bounded")) {
+            /**
+             * The fixed pool above queues all 60000 tasks within milliseconds and then works them off.
+             * A bounded pool makes the submitting thread keep pace instead, so the queue never holds more
+             * than its capacity and a task waits at most about capacity / threads task durations.
+             * caller_runs finishes first: while the queue is full the main thread is a third worker.
+             */
+            int capacity = Integer.getInteger("queueCapacity", 100);
+            for (String queue : System.getProperty("boundedQueues", "array,synchronous").split(",")) {
+                for (String policy : System.getProperty("rejectionPolicies", "caller_runs,block").split(",")) {
+                    BoundedThreadPool.QueueKind queueKind =
+                            BoundedThreadPool.QueueKind.valueOf(queue.trim().toUpperCase());
+                    BoundedThreadPool.Rejection rejection =
+                            BoundedThreadPool.Rejection.valueOf(policy.trim().toUpperCase());
+                    String name = "bounded." + queueKind.name().toLowerCase() + "." + rejection.name().toLowerCase();
+                    BoundedThreadPool executor = new BoundedThreadPool(name, 2, queueKind, capacity, rejection);
+                    runOnExecutor(name, executor);
+                    executor.printSummary(System.out);
+                }
+            }
+        }
+    }
+
+    private static void runBatched(int batchSize, long taskSleep) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+        BatchingSubmitter submitter = new BatchingSubmitter(executor, batchSize);
+        registerPoolGauges(executor);
+        long start = System.nanoTime();
+        int maxQueueSize = 0;
+        for (int i = 0; i < TASKS; i++) {
+            submitter.submit(new Processor(i, taskSleep));
+            if (i % 100 == 0) {
+                maxQueueSize = Math.max(maxQueueSize, executor.getQueue().size());
+            }
+        }
+        try {
+            submitter.awaitCompletion();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        long elapsed = Math.max(1, RUN_TIME.recordSince(start));
+        executor.shutdown();
+        removePoolGauges();
+        AsyncLog.flush();
+
+        System.out.println("Batch size " + batchSize + " time taken: " + TimeUnit.NANOSECONDS.toMillis(elapsed)
+                + "; tasks/s: " + TASKS * 1_000_000_000L / elapsed
+                + "; queue offers: " + submitter.getBatchesSubmitted()
+                + "; time in execute(): " + submitter.getNanosInExecute() / 1_000_000 + "ms"
+                + "; max queue size: " + maxQueueSize);
+    }
+
+    /** Submits all tasks, shuts the executor down and waits for it. Every executor mode is timed this way. */
+    private static void runOnExecutor(String name, ExecutorService executor) {
+        AsyncLog.flush();
+        System.out.println("Starting: " + name);
+        registerPoolGauges(executor);
+        long start = System.nanoTime();
+        for (int i = 0; i < TASKS; i++) {
             executor.submit(new Processor(i));
         }
         // this tells executor to not to accept any more tasks
         executor.shutdown();
         /** throws RejectedExecutionException */
         //executor.submit(new Processor(1256));
-        System.out.println("All Tasks Submitted");
+        AsyncLog.println("All Tasks Submitted");
         try {
             /** awaits for all tasks to complete for duration.
              * If doesn't complete code moves forward.
@@ -76,8 +233,43 @@ public class ThreadPoolDemo {
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        end = System.currentTimeMillis();
-        // This takes around 37 seconds to complete.
-        System.out.println("Time taken: " + (end - start));
+        long elapsed = RUN_TIME.recordSince(start);
+        removePoolGauges();
+        AsyncLog.flush();
+        System.out.println(name + " time taken: " + TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    /** Points the pool.queue and pool.active gauges at the executor of the current run */
+    private static void registerPoolGauges(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            Metrics.gauge("pool.queue", () -> pool.getQueue().size());
+            Metrics.gauge("pool.active", pool::getActiveCount);
+        } else if (executor instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool) executor;
+            Metrics.gauge("pool.queue", () -> pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+            Metrics.gauge("pool.active", pool::getActiveThreadCount);
+        }
+    }
+
+    /** Lets go of the executor of the run that just ended */
+    private static void removePoolGauges() {
+        Metrics.remove("pool.queue");
+        Metrics.remove("pool.active");
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() only exists since Java 21 while this project compiles
+     * for Java 8, so it is looked up reflectively. Returns null on older runtimes.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create virtual thread executor", e);
+        }
     }
 }
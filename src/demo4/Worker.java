@@ -1,16 +1,102 @@
 package demo4;
 
+import common.LockProfiler;
+import common.Metrics;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /** Read List, ArrayList and Vector Documentation */
 class Worker {
 
-    private Random random = new Random();
-    private List<Integer> list1 = new ArrayList<>();
-    private List<Integer> list2 = new ArrayList<>();
+    /** Locking strategies that can be run one iteration at a time, e.g. by a benchmark harness. */
+    enum Strategy {
+        PLAIN, SYNCHRONIZED, LOCK, VECTOR, STRIPED, PRIMITIVE, EXCLUSIVE, READ_WRITE, STAMPED
+    }
+
+    /** What the stages of forkJoinProcess() and sequentialProcess() do before storing their value. */
+    enum StageBody {
+        /** Thread.sleep(stageLatencyMillis), like the other stages: waiting, no CPU used */
+        SLEEP,
+        /** A loop of cpuIterations arithmetic steps: pure computation that needs a core */
+        CPU
+    }
+
+    /** Which way transfer() moves a value */
+    enum Direction {
+        /** takes transferLock1, then transferLock2 */
+        ONE_TO_TWO,
+        /** takes transferLock2, then transferLock1: the opposite order */
+        TWO_TO_ONE
+    }
+
+    /** How lock1/lock2 and list1/list2 are allocated, see WorkerLayoutBenchmark. */
+    enum Layout {
+        /** Plain Objects and ArrayLists, allocated next to each other */
+        COMPACT,
+        /** PaddedLock and PaddedArrayList, so the two locks and the two lists never share a cache line */
+        PADDED;
+
+        Object newLock() {
+            return this == PADDED ? new PaddedLock() : new Object();
+        }
+
+        <E> List<E> newList() {
+            return this == PADDED ? new PaddedArrayList<>() : new ArrayList<>();
+        }
+    }
+
+    /** Lock sites measured with -Dlock.profile=true, shared by all Worker instances */
+    private static final LockProfiler.Site THIS_MONITOR = LockProfiler.site("Worker.this");
+    private static final LockProfiler.Site LOCK1 = LockProfiler.site("Worker.lock1");
+    private static final LockProfiler.Site LOCK2 = LockProfiler.site("Worker.lock2");
+    private static final LockProfiler.Site VECTOR1 = LockProfiler.site("Worker.vector1");
+    private static final LockProfiler.Site VECTOR2 = LockProfiler.site("Worker.vector2");
+    private static final LockProfiler.Site TRANSFER1 = LockProfiler.site("Worker.transferLock1");
+    private static final LockProfiler.Site TRANSFER2 = LockProfiler.site("Worker.transferLock2");
+    /**
+     * Without -Dlock.profile or -Dlock.order the sites are bypassed for plain synchronized blocks, so the
+     * benchmarks measure locking and not the capturing lambda every site call allocates.
+     */
+    private static final boolean TRACKED = LockProfiler.isTracking();
+    /** Duration of each run in main(), with -Dmetrics.csv or -Dmetrics.json also written as time series */
+    private static final Metrics.Histogram RUN_TIME = Metrics.histogram("worker.run");
+
+    /** How often transfer() retries after a tryLock timeout before it gives up */
+    private static final int TRANSFER_ATTEMPTS = 10;
+
+    /** How long each stage pretends to wait on I/O. */
+    private final long stageLatencyMillis;
+    private final StageBody stageBody;
+    private final int cpuIterations;
+    private final RandomSource randomSource;
+    /** Plain Random, not CountingRandom, so SHARED is compared without instrumentation on its hot path */
+    private final Random random = new Random();
+    private final SplittableRandom rootRandom = new SplittableRandom();
+    private final ThreadLocal<SplittableRandom> splittableRandom = ThreadLocal.withInitial(() -> {
+        // split() itself is not thread safe
+        synchronized (rootRandom) {
+            return rootRandom.split();
+        }
+    });
+    private List<Integer> list1;
+    private List<Integer> list2;
     /**
      * Why don't lock on lists itself?
      * Because the object may itself change. Lock objects must be final.
@@ -18,29 +104,98 @@ class Worker {
      * that may lead to very hard to debug issues. Simple strategy, we take a lock object which is final and
      * is immutable guaranteeing that locking works perfectly.
      */
-    private final Object lock1 = new Object();
-    private final Object lock2 = new Object();
+    private final Object lock1;
+    private final Object lock2;
     private Vector<Integer> vector1 = new Vector<>();
     private Vector<Integer> vector2 = new Vector<>();
+    private StripedList<Integer> striped1 = new StripedList<>();
+    private StripedList<Integer> striped2 = new StripedList<>();
+    /** Same values as list1/list2 but without boxing; guarded by lock1/lock2 */
+    private final IntStore ints1;
+    private final IntStore ints2;
+    /**
+     * Values waiting to be handed from one stage to the other by transfer(). Moving one needs both locks,
+     * so unlike everything else in Worker the two locks are nested here.
+     */
+    private final ReentrantLock transferLock1 = new ReentrantLock();
+    private final ReentrantLock transferLock2 = new ReentrantLock();
+    private final List<Integer> pending1 = new ArrayList<>();
+    private final List<Integer> pending2 = new ArrayList<>();
+    private final LongAdder transferBackoffs = new LongAdder();
+    /** Lists for read-mostly access, see readStageOne(); EXCLUSIVE is the baseline with one monitor */
+    private final SharedIntList exclusiveList1 = SharedIntList.Kind.EXCLUSIVE.create();
+    private final SharedIntList exclusiveList2 = SharedIntList.Kind.EXCLUSIVE.create();
+    private final SharedIntList readWriteList1 = SharedIntList.Kind.READ_WRITE.create();
+    private final SharedIntList readWriteList2 = SharedIntList.Kind.READ_WRITE.create();
+    private final SharedIntList stampedList1 = SharedIntList.Kind.STAMPED.create();
+    private final SharedIntList stampedList2 = SharedIntList.Kind.STAMPED.create();
+
+    Worker() {
+        this(1);
+    }
+
+    Worker(long stageLatencyMillis) {
+        this(stageLatencyMillis, IntStore.Kind.HEAP);
+    }
+
+    Worker(long stageLatencyMillis, IntStore.Kind intStorage) {
+        this(stageLatencyMillis, intStorage, RandomSource.SHARED);
+    }
+
+    Worker(long stageLatencyMillis, IntStore.Kind intStorage, RandomSource randomSource) {
+        this(stageLatencyMillis, intStorage, randomSource, StageBody.SLEEP, 0);
+    }
+
+    Worker(long stageLatencyMillis, IntStore.Kind intStorage, RandomSource randomSource, StageBody stageBody,
+           int cpuIterations) {
+        this(stageLatencyMillis, intStorage, randomSource, stageBody, cpuIterations, Layout.COMPACT);
+    }
+
+    Worker(long stageLatencyMillis, IntStore.Kind intStorage, RandomSource randomSource, StageBody stageBody,
+           int cpuIterations, Layout layout) {
+        // allocated in this order so COMPACT really puts the two locks and the two lists next to each other
+        this.lock1 = layout.newLock();
+        this.lock2 = layout.newLock();
+        this.list1 = layout.newList();
+        this.list2 = layout.newList();
+        this.stageLatencyMillis = stageLatencyMillis;
+        this.stageBody = stageBody;
+        this.cpuIterations = cpuIterations;
+        this.randomSource = randomSource;
+        this.ints1 = intStorage.create();
+        this.ints2 = intStorage.create();
+    }
+
+    /** Random value between 0 and 99 from the configured source */
+    int nextRandom() {
+        switch (randomSource) {
+            case THREAD_LOCAL:
+                return ThreadLocalRandom.current().nextInt(100);
+            case SPLITTABLE:
+                return splittableRandom.get().nextInt(100);
+            default:
+                return random.nextInt(100);
+        }
+    }
 
     // This function can be assumed to be the one taking some time to execute
     // like a network call.
     private void stageOne() {
         try {
-            Thread.sleep(1);
+            Thread.sleep(stageLatencyMillis);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        list1.add(random.nextInt(100));
+        list1.add(nextRandom());
     }
 
     private void stageTwo() {
         try {
-            Thread.sleep(1);
+            Thread.sleep(stageLatencyMillis);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        list2.add(random.nextInt(100));
+        list2.add(nextRandom());
     }
 
     private void process() {
@@ -50,22 +205,37 @@ class Worker {
         }
     }
 
-    synchronized private void synchronizedStageOne() {
-        try {
-            Thread.sleep(1);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * Same as declaring the method synchronized: the whole body, sleep included, holds the monitor of this.
+     * It goes through a LockProfiler site so the time threads wait for that monitor can be measured.
+     */
+    private void synchronizedStageOne() {
+        if (TRACKED) {
+            THIS_MONITOR.synchronize(this, () -> sleepAndAdd(list1));
+        } else {
+            synchronized (this) {
+                sleepAndAdd(list1);
+            }
+        }
+    }
+
+    private void synchronizedStageTwo() {
+        if (TRACKED) {
+            THIS_MONITOR.synchronize(this, () -> sleepAndAdd(list2));
+        } else {
+            synchronized (this) {
+                sleepAndAdd(list2);
+            }
         }
-        list1.add(random.nextInt(100));
     }
 
-    synchronized private void synchronizedStageTwo() {
+    private void sleepAndAdd(List<Integer> list) {
         try {
-            Thread.sleep(1);
+            Thread.sleep(stageLatencyMillis);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        list2.add(random.nextInt(100));
+        list.add(nextRandom());
     }
 
     private void synchronizedProcess() {
@@ -77,23 +247,54 @@ class Worker {
 
     private void lockStageOne() {
         try {
-            Thread.sleep(1);
+            Thread.sleep(stageLatencyMillis);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        synchronized (lock1) {
-            list1.add(random.nextInt(100));
-        }
+        addUnderLock1();
     }
 
     private void lockStageTwo() {
         try {
-            Thread.sleep(1);
+            Thread.sleep(stageLatencyMillis);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        synchronized (lock2) {
-            list2.add(random.nextInt(100));
+        addUnderLock2();
+    }
+
+    private void addUnderLock1() {
+        if (TRACKED) {
+            // synchronized (lock1) { list1.add(...) }, measured
+            LOCK1.synchronize(lock1, () -> list1.add(nextRandom()));
+        } else {
+            synchronized (lock1) {
+                list1.add(nextRandom());
+            }
+        }
+    }
+
+    private void addUnderLock2() {
+        if (TRACKED) {
+            LOCK2.synchronize(lock2, () -> list2.add(nextRandom()));
+        } else {
+            synchronized (lock2) {
+                list2.add(nextRandom());
+            }
+        }
+    }
+
+    /**
+     * Runs only one stage of the LOCK strategy, for threads that stick to one stage like in pipelinedProcess().
+     * Threads of different stages share no lock and no list, so any slowdown between them is false sharing.
+     */
+    void lockStage(int stage) {
+        if (stage == 1) {
+            lockStageOne();
+        } else if (stage == 2) {
+            lockStageTwo();
+        } else {
+            throw new IllegalArgumentException("No such stage: " + stage);
         }
     }
 
@@ -106,20 +307,30 @@ class Worker {
 
     private void vectorStageOne() {
         try {
-            Thread.sleep(1);
+            Thread.sleep(stageLatencyMillis);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        vector1.add(random.nextInt(100));
+        // Vector.add() synchronizes on the vector itself. Taking that monitor first makes the wait measurable,
+        // inside add() the monitor is then already ours (monitors are reentrant)
+        if (TRACKED) {
+            VECTOR1.synchronize(vector1, () -> vector1.add(nextRandom()));
+        } else {
+            vector1.add(nextRandom());
+        }
     }
 
     private void vectoStageTwo() {
         try {
-            Thread.sleep(1);
+            Thread.sleep(stageLatencyMillis);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        vector2.add(random.nextInt(100));
+        if (TRACKED) {
+            VECTOR2.synchronize(vector2, () -> vector2.add(nextRandom()));
+        } else {
+            vector2.add(nextRandom());
+        }
     }
 
     private void vectorProcess() {
@@ -129,14 +340,508 @@ class Worker {
         }
     }
 
+    /**
+     * Writes go to one of several independently locked stripes, so threads rarely wait for each other.
+     * Unlike lockStageOne() this keeps scaling when there are many more than two threads.
+     */
+    private void stripedStageOne() {
+        try {
+            Thread.sleep(stageLatencyMillis);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        striped1.add(nextRandom());
+    }
+
+    private void stripedStageTwo() {
+        try {
+            Thread.sleep(stageLatencyMillis);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        striped2.add(nextRandom());
+    }
+
+    private void stripedProcess() {
+        for (int i = 0; i < 1000; i++) {
+            stripedStageOne();
+            stripedStageTwo();
+        }
+    }
+
+    /**
+     * Same locking as lockStageOne() but the value is stored as a primitive int,
+     * so no Integer objects and no reference arrays are created.
+     */
+    private void primitiveStageOne() {
+        try {
+            Thread.sleep(stageLatencyMillis);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        if (TRACKED) {
+            LOCK1.synchronize(lock1, () -> ints1.add(nextRandom()));
+        } else {
+            synchronized (lock1) {
+                ints1.add(nextRandom());
+            }
+        }
+    }
+
+    private void primitiveStageTwo() {
+        try {
+            Thread.sleep(stageLatencyMillis);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        if (TRACKED) {
+            LOCK2.synchronize(lock2, () -> ints2.add(nextRandom()));
+        } else {
+            synchronized (lock2) {
+                ints2.add(nextRandom());
+            }
+        }
+    }
+
+    /** Stage for the EXCLUSIVE, READ_WRITE and STAMPED strategies; the list does its own locking. */
+    private void sharedListStage(SharedIntList list) {
+        try {
+            Thread.sleep(stageLatencyMillis);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        list.add(nextRandom());
+    }
+
+    /**
+     * What a reporting thread does: reads the most recent values stage one stored with the given strategy.
+     *
+     * LOCK, VECTOR and EXCLUSIVE readers exclude each other just like writers do. READ_WRITE readers only
+     * exclude writers, and STAMPED readers normally take no lock at all. EXCLUSIVE stores the same ints as
+     * READ_WRITE and STAMPED, so it is the baseline to compare them with.
+     */
+    long readStageOne(Strategy strategy) {
+        switch (strategy) {
+            case LOCK:
+                return readRecent(LOCK1, lock1, list1);
+            case VECTOR:
+                return readRecent(VECTOR1, vector1, vector1);
+            case EXCLUSIVE:
+                return exclusiveList1.recentSum(RECENT_VALUES);
+            case READ_WRITE:
+                return readWriteList1.recentSum(RECENT_VALUES);
+            case STAMPED:
+                return stampedList1.recentSum(RECENT_VALUES);
+            default:
+                throw new IllegalArgumentException("No concurrent reads for strategy: " + strategy);
+        }
+    }
+
+    private static final int RECENT_VALUES = 100;
+
+    private static long readRecent(LockProfiler.Site site, Object monitor, List<Integer> list) {
+        if (!TRACKED) {
+            synchronized (monitor) {
+                return recentSum(list);
+            }
+        }
+        long[] sum = new long[1];
+        site.synchronize(monitor, () -> sum[0] = recentSum(list));
+        return sum[0];
+    }
+
+    private static long recentSum(List<Integer> list) {
+        long sum = 0;
+        for (int i = Math.max(0, list.size() - RECENT_VALUES); i < list.size(); i++) {
+            sum += list.get(i);
+        }
+        return sum;
+    }
+
+    /** Puts count values into each side of transfer(). */
+    void fillPending(int count) {
+        TRANSFER1.lock(transferLock1, () -> {
+            for (int i = 0; i < count; i++) {
+                pending1.add(nextRandom());
+            }
+        });
+        TRANSFER2.lock(transferLock2, () -> {
+            for (int i = 0; i < count; i++) {
+                pending2.add(nextRandom());
+            }
+        });
+    }
+
+    /**
+     * Moves one pending value to the other side, holding the source side's lock and then the target side's.
+     *
+     * Two threads moving in opposite directions take the two locks in opposite order: with a negative
+     * timeout (plain lock()) each can end up holding one lock and waiting forever for the other. With a
+     * timeout every lock is taken with tryLock(); if the second one can't be had, the first is released,
+     * the thread sleeps for a random part of the timeout so both don't retry in lockstep, and tries again.
+     *
+     * @return false if the source side was empty, or if every attempt timed out
+     */
+    boolean transfer(Direction direction, long timeoutMillis) {
+        boolean oneToTwo = direction == Direction.ONE_TO_TWO;
+        LockProfiler.Site firstSite = oneToTwo ? TRANSFER1 : TRANSFER2;
+        LockProfiler.Site secondSite = oneToTwo ? TRANSFER2 : TRANSFER1;
+        ReentrantLock first = oneToTwo ? transferLock1 : transferLock2;
+        ReentrantLock second = oneToTwo ? transferLock2 : transferLock1;
+        List<Integer> from = oneToTwo ? pending1 : pending2;
+        List<Integer> to = oneToTwo ? pending2 : pending1;
+        boolean[] moved = new boolean[1];
+        Runnable move = () -> {
+            if (!from.isEmpty()) {
+                to.add(from.remove(from.size() - 1));
+                moved[0] = true;
+            }
+        };
+
+        if (timeoutMillis < 0) {
+            firstSite.lock(first, () -> secondSite.lock(second, move));
+            return moved[0];
+        }
+        for (int attempt = 0; attempt < TRANSFER_ATTEMPTS; attempt++) {
+            boolean[] acquired = new boolean[1];
+            try {
+                firstSite.tryLock(first, timeoutMillis, TimeUnit.MILLISECONDS, () -> {
+                    try {
+                        acquired[0] = secondSite.tryLock(second, timeoutMillis, TimeUnit.MILLISECONDS, move);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                if (acquired[0]) {
+                    return moved[0];
+                }
+                transferBackoffs.increment();
+                Thread.sleep(ThreadLocalRandom.current().nextLong(timeoutMillis + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** All pending values on both sides; transfers only move values, so this never changes. */
+    int pendingTotal() {
+        int[] total = new int[1];
+        // same order as ONE_TO_TWO
+        TRANSFER1.lock(transferLock1, () -> TRANSFER2.lock(transferLock2,
+                () -> total[0] = pending1.size() + pending2.size()));
+        return total[0];
+    }
+
+    /** Times transfer() let go of its first lock because the second one timed out */
+    long transferBackoffs() {
+        return transferBackoffs.sum();
+    }
+
+    /** Runs the configured StageBody and returns the value to store, 0 - 99. */
+    private int stageValue() {
+        if (stageBody == StageBody.SLEEP) {
+            try {
+                Thread.sleep(stageLatencyMillis);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            return nextRandom();
+        }
+        int x = nextRandom();
+        for (int i = 0; i < cpuIterations; i++) {
+            x = x * 31 + (x >>> 7) + i;
+        }
+        return Math.floorMod(x, 100);
+    }
+
+    /**
+     * Splits a range of iterations in halves until it is small enough, then runs stageOne/stageTwo for it
+     * into buffers of its own. Only when a range is done are the buffers added to list1/list2, so the locks
+     * are taken once per range instead of once per value.
+     */
+    private class StageTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        StageTask(int from, int to, int threshold) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                // idle pool threads steal the half that is not being worked on yet
+                invokeAll(new StageTask(from, middle, threshold), new StageTask(middle, to, threshold));
+                return;
+            }
+            List<Integer> one = new ArrayList<>(to - from);
+            List<Integer> two = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                one.add(stageValue());
+                two.add(stageValue());
+            }
+            if (TRACKED) {
+                LOCK1.synchronize(lock1, () -> list1.addAll(one));
+                LOCK2.synchronize(lock2, () -> list2.addAll(two));
+            } else {
+                synchronized (lock1) {
+                    list1.addAll(one);
+                }
+                synchronized (lock2) {
+                    list2.addAll(two);
+                }
+            }
+        }
+    }
+
+    /** Runs the iterations split into work-stealing tasks on the pool, using the configured StageBody. */
+    void forkJoinProcess(ForkJoinPool pool, int iterations) {
+        // a few tasks per thread so threads that finish early can steal from the others
+        int threshold = Math.max(1, iterations / (pool.getParallelism() * 4));
+        pool.invoke(new StageTask(0, iterations, threshold));
+    }
+
+    /** The single thread baseline for forkJoinProcess(), same StageBody, same locking. */
+    void sequentialProcess(int iterations) {
+        new StageTask(0, iterations, iterations).compute();
+    }
+
+    /**
+     * Runs stageOne and stageTwo on separate thread pools connected by a bounded queue, like an assembly line.
+     *
+     * While stage two works on iteration i, stage one already works on iteration i + 1, so the two latencies
+     * overlap and throughput is bounded by the slower stage instead of the sum of both. The queue hands over
+     * the iteration number only (the stages share no data) and its capacity limits how far stage one may run
+     * ahead. Both stages use the lock1/lock2 variants since several threads may run each of them.
+     */
+    void pipelinedProcess(int iterations, int stageOneThreads, int stageTwoThreads, int queueCapacity) {
+        pipelinedProcess(iterations, stageOneThreads, stageLatencyMillis, stageTwoThreads, stageLatencyMillis,
+                queueCapacity);
+    }
+
+    /**
+     * Same with its own thread count and latency per stage, so one stage can be made the slower one; see
+     * pipelineBound() for the throughput that allows.
+     *
+     * If a stage fails, both pools are shut down at once, which interrupts threads waiting on the queue, and
+     * the failure is rethrown as an IllegalStateException. Without that a failed stage two would stop taking
+     * from the queue and leave stage one blocked in put() forever.
+     */
+    void pipelinedProcess(int iterations, int stageOneThreads, long stageOneMillis, int stageTwoThreads,
+                          long stageTwoMillis, int queueCapacity) {
+        BlockingQueue<Integer> handoff = new ArrayBlockingQueue<>(queueCapacity);
+        // tells a stage two thread that there is nothing more to come
+        Integer done = -1;
+        AtomicInteger nextIteration = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        ExecutorService stageOnePool = Executors.newFixedThreadPool(stageOneThreads);
+        ExecutorService stageTwoPool = Executors.newFixedThreadPool(stageTwoThreads);
+        // the first failure wins; the interrupts it causes in the other threads end up here too and are ignored
+        Consumer<Throwable> fail = error -> {
+            if (failure.compareAndSet(null, error)) {
+                stageOnePool.shutdownNow();
+                stageTwoPool.shutdownNow();
+            }
+        };
+        for (int t = 0; t < stageTwoThreads; t++) {
+            stageTwoPool.execute(() -> {
+                try {
+                    while (!done.equals(handoff.take())) {
+                        Thread.sleep(stageTwoMillis);
+                        addUnderLock2();
+                    }
+                } catch (Throwable e) {
+                    fail.accept(e);
+                }
+            });
+        }
+        for (int t = 0; t < stageOneThreads; t++) {
+            stageOnePool.execute(() -> {
+                try {
+                    int i;
+                    while (failure.get() == null && (i = nextIteration.getAndIncrement()) < iterations) {
+                        Thread.sleep(stageOneMillis);
+                        addUnderLock1();
+                        handoff.put(i);
+                    }
+                } catch (Throwable e) {
+                    fail.accept(e);
+                }
+            });
+        }
+
+        try {
+            stageOnePool.shutdown();
+            stageOnePool.awaitTermination(1, TimeUnit.HOURS);
+            // a failed stage two takes nothing any more, so never wait for queue space without checking
+            int pills = 0;
+            while (pills < stageTwoThreads && failure.get() == null) {
+                if (handoff.offer(done, 10, TimeUnit.MILLISECONDS)) {
+                    pills++;
+                }
+            }
+            stageTwoPool.shutdown();
+            stageTwoPool.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            stageOnePool.shutdownNow();
+            stageTwoPool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Pipeline interrupted", e);
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Pipeline stage failed", failure.get());
+        }
+    }
+
+    /**
+     * Iterations per second pipelinedProcess() can reach at most: each stage completes threads / latency
+     * iterations per second and the slower of the two sets the pace. Infinite if neither stage sleeps.
+     */
+    static double pipelineBound(int stageOneThreads, long stageOneMillis, int stageTwoThreads, long stageTwoMillis) {
+        double stageOne = stageOneMillis == 0 ? Double.POSITIVE_INFINITY : stageOneThreads * 1000.0 / stageOneMillis;
+        double stageTwo = stageTwoMillis == 0 ? Double.POSITIVE_INFINITY : stageTwoThreads * 1000.0 / stageTwoMillis;
+        return Math.min(stageOne, stageTwo);
+    }
+
+    /** Runs a single stageOne/stageTwo pair with the given strategy. */
+    void iteration(Strategy strategy) {
+        switch (strategy) {
+            case PLAIN:
+                stageOne();
+                stageTwo();
+                break;
+            case SYNCHRONIZED:
+                synchronizedStageOne();
+                synchronizedStageTwo();
+                break;
+            case LOCK:
+                lockStageOne();
+                lockStageTwo();
+                break;
+            case VECTOR:
+                vectorStageOne();
+                vectoStageTwo();
+                break;
+            case STRIPED:
+                stripedStageOne();
+                stripedStageTwo();
+                break;
+            case PRIMITIVE:
+                primitiveStageOne();
+                primitiveStageTwo();
+                break;
+            case EXCLUSIVE:
+                sharedListStage(exclusiveList1);
+                sharedListStage(exclusiveList2);
+                break;
+            case READ_WRITE:
+                sharedListStage(readWriteList1);
+                sharedListStage(readWriteList2);
+                break;
+            case STAMPED:
+                sharedListStage(stampedList1);
+                sharedListStage(stampedList2);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown strategy: " + strategy);
+        }
+    }
+
+    /** Number of elements stored by stage one of the given strategy. */
+    int stageOneSize(Strategy strategy) {
+        switch (strategy) {
+            case VECTOR:
+                return vector1.size();
+            case STRIPED:
+                return striped1.size();
+            case PRIMITIVE:
+                synchronized (lock1) {
+                    return ints1.size();
+                }
+            case EXCLUSIVE:
+                return exclusiveList1.size();
+            case READ_WRITE:
+                return readWriteList1.size();
+            case STAMPED:
+                return stampedList1.size();
+            default:
+                return list1.size();
+        }
+    }
+
+    /** Number of elements stored by stage two of the given strategy. */
+    int stageTwoSize(Strategy strategy) {
+        switch (strategy) {
+            case VECTOR:
+                return vector2.size();
+            case STRIPED:
+                return striped2.size();
+            case PRIMITIVE:
+                synchronized (lock2) {
+                    return ints2.size();
+                }
+            case EXCLUSIVE:
+                return exclusiveList2.size();
+            case READ_WRITE:
+                return readWriteList2.size();
+            case STAMPED:
+                return stampedList2.size();
+            default:
+                return list2.size();
+        }
+    }
+
+    /** Empties every collection so the next run starts from scratch. */
+    void reset() {
+        list1.clear();
+        list2.clear();
+        vector1.clear();
+        vector2.clear();
+        striped1.clear();
+        striped2.clear();
+        synchronized (lock1) {
+            ints1.clear();
+        }
+        synchronized (lock2) {
+            ints2.clear();
+        }
+        exclusiveList1.clear();
+        exclusiveList2.clear();
+        readWriteList1.clear();
+        readWriteList2.clear();
+        stampedList1.clear();
+        stampedList2.clear();
+        TRANSFER1.lock(transferLock1, pending1::clear);
+        TRANSFER2.lock(transferLock2, pending2::clear);
+        transferBackoffs.reset();
+    }
+
+    /** Records a run of main() measured with System.nanoTime() and returns its milliseconds */
+    private static long timeTaken(long start, long end) {
+        RUN_TIME.record(end - start);
+        return TimeUnit.NANOSECONDS.toMillis(end - start);
+    }
+
     void main() {
+        // plain reads of the unsynchronized lists; a gauge only needs a recent value
+        Metrics.gauge("worker.list1", list1::size);
+        Metrics.gauge("worker.list2", list2::size);
         System.out.println("Starting...");
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         process();
-        long end = System.currentTimeMillis();
+        long end = System.nanoTime();
         // This should be a bit greater than 2 * 1000 milliseconds
         // as there is 1ms sleep + time for other operations (Close to 2500ms)
-        System.out.println("Time Taken: " + (end - start));
+        System.out.println("Time Taken: " + timeTaken(start, end));
         // Both of them must have 1000 elements
         System.out.println("List1: " + list1.size() + "; List2: " + list2.size());
 
@@ -151,12 +856,12 @@ class Worker {
         }
 
         System.out.println("Starting...");
-        start = System.currentTimeMillis();
+        start = System.nanoTime();
         // call process in a new thread
         new Thread(this::process).start();
-        end = System.currentTimeMillis();
+        end = System.nanoTime();
         // Since work is offloaded to a thread this will take just processing time to start thread (Close to 50ms)
-        System.out.println("Time Taken: " + (end - start));
+        System.out.println("Time Taken: " + timeTaken(start, end));
         // This should be 0 because process() has been called in new thread which would have significant
         // overhead of thread creation. So, this will run first.
         System.out.println("List1: " + list1.size() + "; List2: " + list2.size());
@@ -172,7 +877,7 @@ class Worker {
         }
 
         System.out.println("Starting...");
-        start = System.currentTimeMillis();
+        start = System.nanoTime();
         Thread t1 = new Thread(this::process);
         Thread t2 = new Thread(this::process);
         t1.start();
@@ -185,9 +890,9 @@ class Worker {
             e.printStackTrace();
         }
 
-        end = System.currentTimeMillis();
+        end = System.nanoTime();
         // As we are waiting for both threads to finish this should be ideally a bit more than 2000ms (Close to 2500ms)
-        System.out.println("Time Taken: " + (end - start));
+        System.out.println("Time Taken: " + timeTaken(start, end));
         // We expect this to be 2000 for both lists but it is not so since two threads are concurrently accessing
         // the list and ArrayList in itself is not a thread safe collection
         // Real output comes greater than 2000.
@@ -206,7 +911,7 @@ class Worker {
         }
 
         System.out.println("Starting...");
-        start = System.currentTimeMillis();
+        start = System.nanoTime();
         Thread t3 = new Thread(this::synchronizedProcess);
         Thread t4 = new Thread(this::synchronizedProcess);
         t3.start();
@@ -219,9 +924,9 @@ class Worker {
             e.printStackTrace();
         }
 
-        end = System.currentTimeMillis();
+        end = System.nanoTime();
         // performance worsens because different shared data is using same lock [More than 5000ms]
-        System.out.println("Time Taken: " + (end - start));
+        System.out.println("Time Taken: " + timeTaken(start, end));
         // This works fine now; 2000 elements per list
         System.out.println("List1: " + list1.size() + "; List2: " + list2.size());
 
@@ -237,7 +942,7 @@ class Worker {
         }
 
         System.out.println("Starting...");
-        start = System.currentTimeMillis();
+        start = System.nanoTime();
         Thread t5 = new Thread(this::lockProcess);
         Thread t6 = new Thread(this::lockProcess);
         t5.start();
@@ -250,9 +955,9 @@ class Worker {
             e.printStackTrace();
         }
 
-        end = System.currentTimeMillis();
+        end = System.nanoTime();
         // performance should improve here (Close t0 2600ms)
-        System.out.println("Time Taken: " + (end - start));
+        System.out.println("Time Taken: " + timeTaken(start, end));
         // This works fine now; 2000 elements per list
         System.out.println("List1: " + list1.size() + "; List2: " + list2.size());
 
@@ -261,7 +966,7 @@ class Worker {
          * Please see that Vector is equivalent to ArrayList except its methods are synchronized.
          */
         System.out.println("Starting...");
-        start = System.currentTimeMillis();
+        start = System.nanoTime();
         Thread t7 = new Thread(this::vectorProcess);
         Thread t8 = new Thread(this::vectorProcess);
         t7.start();
@@ -274,10 +979,78 @@ class Worker {
             e.printStackTrace();
         }
 
-        end = System.currentTimeMillis();
+        end = System.nanoTime();
         // Same performance as above since this is a thread safe structure.
-        System.out.println("Time Taken: " + (end - start));
+        System.out.println("Time Taken: " + timeTaken(start, end));
         // This works fine now; 2000 elements per list
         System.out.println("Vector1: " + vector1.size() + "; Vector2: " + vector2.size());
+
+        /**
+         * Both solutions above still funnel every add() through one lock per list.
+         * Striped lists give every thread (almost) its own segment and only merge them on read.
+         */
+        System.out.println("Starting...");
+        start = System.nanoTime();
+        Thread t9 = new Thread(this::stripedProcess);
+        Thread t10 = new Thread(this::stripedProcess);
+        t9.start();
+        t10.start();
+
+        try {
+            t9.join();
+            t10.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        end = System.nanoTime();
+        // Same as above for two threads, but unlike the single lock this keeps scaling with 32+ threads.
+        System.out.println("Time Taken: " + timeTaken(start, end));
+        // 2000 elements per list
+        System.out.println("Striped1: " + striped1.size() + "; Striped2: " + striped2.size());
+
+        /**
+         * Instead of every thread running all 1000 iterations, the iterations are split up between the
+         * threads of a ForkJoinPool. Sleeping stages overlap, so with 8 threads this is about 8 times faster.
+         */
+        list1.clear();
+        list2.clear();
+        System.out.println("Starting...");
+        ForkJoinPool pool = new ForkJoinPool(8);
+        start = System.nanoTime();
+        forkJoinProcess(pool, 1000);
+        end = System.nanoTime();
+        pool.shutdown();
+        // Close to 2000ms / 8 = 250ms
+        System.out.println("Time Taken: " + timeTaken(start, end));
+        // Only 1000 elements per list now, the iterations were shared, not repeated
+        System.out.println("List1: " + list1.size() + "; List2: " + list2.size());
+
+        /**
+         * Pipelining: stage one hands every iteration over to stage two. Each iteration still takes both
+         * stages, but the stages run at the same time. Threads and latency per stage can be set with
+         * -Dstage1Threads, -Dstage2Threads (default 1) and -Dstage1Millis, -Dstage2Millis (default 1).
+         */
+        list1.clear();
+        list2.clear();
+        int stageOneThreads = Integer.getInteger("stage1Threads", 1);
+        int stageTwoThreads = Integer.getInteger("stage2Threads", 1);
+        long stageOneMillis = Long.getLong("stage1Millis", stageLatencyMillis);
+        long stageTwoMillis = Long.getLong("stage2Millis", stageLatencyMillis);
+        System.out.println("Starting...");
+        start = System.nanoTime();
+        pipelinedProcess(1000, stageOneThreads, stageOneMillis, stageTwoThreads, stageTwoMillis, 10);
+        end = System.nanoTime();
+        // Close to 1000ms instead of the 2000ms of process(), each stage takes 1ms and they overlap
+        System.out.println("Time Taken: " + timeTaken(start, end));
+        System.out.println("List1: " + list1.size() + "; List2: " + list2.size());
+        System.out.println(String.format("Iterations/s: %.0f; the slower stage allows at most %.0f",
+                1000 * 1e9 / (end - start),
+                pipelineBound(stageOneThreads, stageOneMillis, stageTwoThreads, stageTwoMillis)));
+
+        // With -Dlock.profile=true: which lock did the threads wait for (Worker.this for synchronizedProcess)
+        LockProfiler.printSummary(System.out);
+        Metrics.remove("worker.list1");
+        Metrics.remove("worker.list2");
     }
 }
@@ -0,0 +1,299 @@
+package demo6;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * The same three stage pipeline (producers, a mapping stage, one consumer) built twice: with blocking queues
+ * like ProducerConsumerDemo and with demand driven reactive streams (GeneratorPublisher, MergeProcessor).
+ *
+ * Both apply backpressure when the consumer is slow. The blocking version does it by parking threads: every
+ * producer needs its own thread and it sits in put() while the queue is full. The reactive version does it
+ * by not requesting more: producers are just objects and run on a small pool only while there is demand.
+ * The interesting numbers are therefore threads used and memory besides throughput. Memory is the bytes
+ * all pipeline threads allocated plus the thread stacks they reserved.
+ *
+ * -Dproducers=1,16,256 takes a list and runs both versions for every count, -Ditems is the total across
+ * producers, -DbufferSize the capacity of each queue (blocking) or input buffer and request size (reactive),
+ * -DpoolSize the threads of the reactive version and -DconsumerNanos busy work per item in the consumer.
+ */
+public class BackpressureDemo {
+
+    /** Tells the mapping stage and the consumer of the blocking version that the producers are done */
+    private static final Long POISON = Long.MIN_VALUE;
+
+    private static final Function<Long, Long> MAPPER = value -> value * 31 + 7;
+
+    public static void main(String[] args) throws InterruptedException {
+        long items = Long.getLong("items", 1_000_000);
+        int bufferSize = Integer.getInteger("bufferSize", 256);
+        int poolSize = Integer.getInteger("poolSize", 2);
+        long consumerNanos = Long.getLong("consumerNanos", 0);
+
+        for (String producers : System.getProperty("producers", "1,16,256").split(",")) {
+            int producerCount = Integer.parseInt(producers.trim());
+            print("blocking", producerCount, runBlocking(producerCount, items, bufferSize, consumerNanos));
+            print("reactive(" + poolSize + ")", producerCount,
+                    runReactive(producerCount, items, bufferSize, poolSize, consumerNanos));
+            System.out.println();
+        }
+    }
+
+    /** What one run measured */
+    private static class Result {
+        private final MeasuringThreadFactory threads;
+        private final long elapsedNanos;
+        private final long consumed;
+        private final long checksum;
+
+        Result(MeasuringThreadFactory threads, long elapsedNanos, long consumed, long checksum) {
+            this.threads = threads;
+            this.elapsedNanos = elapsedNanos;
+            this.consumed = consumed;
+            this.checksum = checksum;
+        }
+    }
+
+    private static void print(String name, int producers, Result result) {
+        long allocated = result.threads.allocatedBytes();
+        System.out.println(String.format("%-12s producers: %4d; %10.0f items/s; threads: %4d (peak %4d); "
+                        + "stacks: %6d KB; allocated: %s; consumed: %d; checksum: %d", name, producers,
+                result.consumed * 1_000_000_000.0 / result.elapsedNanos, result.threads.created(),
+                result.threads.peak(), result.threads.peak() * stackSize() / 1024,
+                allocated < 0 ? "n/a" : String.format("%.1f B/item", (double) allocated / result.consumed),
+                result.consumed, result.checksum));
+    }
+
+    private static Result runBlocking(int producerCount, long items, int bufferSize, long consumerNanos)
+            throws InterruptedException {
+        MeasuringThreadFactory threadFactory = new MeasuringThreadFactory("blocking");
+        BlockingQueue<Long> produced = ProducerConsumerDemo.newQueue("array", bufferSize);
+        BlockingQueue<Long> mapped = ProducerConsumerDemo.newQueue("array", bufferSize);
+        LongAdder consumed = new LongAdder();
+        AtomicLong checksum = new AtomicLong();
+
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < producerCount; p++) {
+            long quota = items / producerCount + (p < items % producerCount ? 1 : 0);
+            producers.add(threadFactory.newThread(() -> {
+                try {
+                    for (long i = 0; i < quota; i++) {
+                        produced.put(i);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+        Thread mapper = threadFactory.newThread(() -> {
+            try {
+                Long value;
+                while (!POISON.equals(value = produced.take())) {
+                    mapped.put(MAPPER.apply(value));
+                }
+                mapped.put(POISON);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        Thread consumer = threadFactory.newThread(() -> {
+            try {
+                long sum = 0;
+                Long value;
+                while (!POISON.equals(value = mapped.take())) {
+                    sum += consume(value, consumerNanos);
+                    consumed.increment();
+                }
+                checksum.set(sum);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        long start = System.nanoTime();
+        consumer.start();
+        mapper.start();
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        produced.put(POISON);
+        consumer.join();
+        mapper.join();
+        return new Result(threadFactory, System.nanoTime() - start, consumed.sum(), checksum.get());
+    }
+
+    private static Result runReactive(int producerCount, long items, int bufferSize, int poolSize,
+                                      long consumerNanos) throws InterruptedException {
+        MeasuringThreadFactory threadFactory = new MeasuringThreadFactory("reactive");
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize, threadFactory);
+        MergeProcessor<Long, Long> processor = new MergeProcessor<>(pool, producerCount, bufferSize, MAPPER);
+        CountDownLatch done = new CountDownLatch(1);
+        DemandSubscriber subscriber = new DemandSubscriber(bufferSize, consumerNanos, done);
+
+        long start = System.nanoTime();
+        processor.subscribe(subscriber);
+        for (int p = 0; p < producerCount; p++) {
+            long quota = items / producerCount + (p < items % producerCount ? 1 : 0);
+            // only called from the publisher's drain, so a plain counter will do
+            long[] next = new long[1];
+            new GeneratorPublisher<>(pool, quota, () -> next[0]++).subscribe(processor.newInput());
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        threadFactory.awaitThreadsEnded();
+        if (subscriber.error != null) {
+            subscriber.error.printStackTrace();
+        }
+        return new Result(threadFactory, elapsed, subscriber.consumed, subscriber.sum);
+    }
+
+    /** The reactive consumer: asks for bufferSize items and asks again whenever half of them arrived. */
+    private static class DemandSubscriber implements ReactiveStreams.Subscriber<Long> {
+        private final int requestSize;
+        private final int replenish;
+        private final long consumerNanos;
+        private final CountDownLatch done;
+        private ReactiveStreams.Subscription subscription;
+        private int received;
+        // signals are serial and done.countDown() publishes these to the main thread
+        private long consumed;
+        private long sum;
+        private Throwable error;
+
+        DemandSubscriber(int requestSize, long consumerNanos, CountDownLatch done) {
+            this.requestSize = requestSize;
+            this.replenish = Math.max(1, requestSize / 2);
+            this.consumerNanos = consumerNanos;
+            this.done = done;
+        }
+
+        @Override
+        public void onSubscribe(ReactiveStreams.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(requestSize);
+        }
+
+        @Override
+        public void onNext(Long item) {
+            sum += consume(item, consumerNanos);
+            consumed++;
+            if (++received == replenish) {
+                received = 0;
+                subscription.request(replenish);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+
+    /** Busy work standing in for a slow consumer; the value is returned unchanged for the checksum */
+    private static long consume(long value, long nanos) {
+        if (nanos > 0) {
+            long end = System.nanoTime() + nanos;
+            while (System.nanoTime() < end) {
+                // spin, nanoTime() can't be optimized away
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Counts the threads it creates, how many were alive at the same time and, where the JVM supports it,
+     * how many bytes they allocated (recorded by each thread right before it ends).
+     */
+    private static class MeasuringThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger alive = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+        private final LongAdder allocated = new LongAdder();
+        private volatile boolean allocationUnknown;
+
+        MeasuringThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(() -> {
+                peak.accumulateAndGet(alive.incrementAndGet(), Math::max);
+                try {
+                    runnable.run();
+                } finally {
+                    long bytes = currentThreadAllocatedBytes();
+                    if (bytes < 0) {
+                        allocationUnknown = true;
+                    } else {
+                        allocated.add(bytes);
+                    }
+                    alive.decrementAndGet();
+                }
+            }, prefix + "-" + created.incrementAndGet());
+        }
+
+        int created() {
+            return created.get();
+        }
+
+        int peak() {
+            return peak.get();
+        }
+
+        /** The pool counts as terminated a moment before its threads record their allocations */
+        void awaitThreadsEnded() throws InterruptedException {
+            while (alive.get() > 0) {
+                Thread.sleep(1);
+            }
+        }
+
+        /** Only complete once all threads ended; -1 if the JVM can't measure allocations */
+        long allocatedBytes() {
+            return allocationUnknown ? -1 : allocated.sum();
+        }
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /** Stack size the JVM reserves per platform thread (-Xss), 1MB if it doesn't tell */
+    private static long stackSize() {
+        try {
+            com.sun.management.HotSpotDiagnosticMXBean hotSpot =
+                    ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+            return Long.parseLong(hotSpot.getVMOption("ThreadStackSize").getValue()) * 1024;
+        } catch (RuntimeException e) {
+            return 1024 * 1024;
+        }
+    }
+}
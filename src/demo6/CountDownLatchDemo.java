@@ -1,19 +1,32 @@
 package demo6;
 
+import common.AsyncLog;
+import common.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /** Read CountdownLatch Documentation */
 class Processor implements Runnable {
-    private CountDownLatch latch;
+    private Runnable latch;
     public Processor(CountDownLatch latch) {
-        this.latch = latch;
+        this.latch = latch::countDown;
+    }
+
+    public Processor(PhaseLatch latch) {
+        this.latch = latch::countDown;
     }
 
     @Override
     public void run() {
-        System.out.println("Started.");
+        AsyncLog.println("Started.");
 
         try {
             Thread.sleep(3000);
@@ -21,15 +34,19 @@ class Processor implements Runnable {
             e.printStackTrace();
         }
 
-        latch.countDown();
+        latch.run();
     }
 }
 
 public class CountDownLatchDemo {
 
+    /** With -Dmetrics.csv or -Dmetrics.json the latch gauges and these durations are written every second */
+    private static final Metrics.Histogram FAN_OUT_TIME = Metrics.histogram("fanout.duration");
+
     public static void main(String[] args) {
         /** Let's wait one or more threads until count reaches zero */
         CountDownLatch latch = new CountDownLatch(3);
+        Metrics.gauge("latch.count", latch::getCount);
 
         /** creates three threads */
         ExecutorService executor = Executors.newFixedThreadPool(3);
@@ -45,7 +62,82 @@ public class CountDownLatchDemo {
         }
         /** this is guaranteed to print after three "Started." messages */
         /** But can print before 4th, 5th, 6th ond 7th Started message and this is non-deterministic */
-        System.out.println("Completed.");
+        AsyncLog.println("Completed.");
+        executor.shutdown();
+        Metrics.remove("latch.count");
+
+        waves();
+        fanOut();
+    }
+
+    /**
+     * The 3-of-9 case without a latch: nine tasks of random length run with at most nine at a time, the
+     * result is available as soon as the fastest three finished and the other six are interrupted.
+     * Nothing blocks until the final join(), which is only there to keep main() from returning early.
+     */
+    private static void fanOut() {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        FanOut fanOut = new FanOut(executor, 9);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        Random random = new Random();
+        for (int i = 0; i < 9; i++) {
+            int id = i;
+            int millis = 500 + random.nextInt(2500);
+            tasks.add(() -> {
+                AsyncLog.println("Task " + id + " started, needs " + millis + "ms");
+                Thread.sleep(millis);
+                return id;
+            });
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<Void> done = fanOut.firstN(tasks, 3)
+                .thenAccept(ids -> AsyncLog.println("First three done: " + ids + " after "
+                        + TimeUnit.NANOSECONDS.toMillis(FAN_OUT_TIME.recordSince(start)) + "ms"));
+        done.join();
+
+        // all nine with a limit of three running at once, results in task order
+        FanOut limited = new FanOut(executor, 3);
+        long allStart = System.nanoTime();
+        List<Integer> all = limited.all(tasks).join();
+        AsyncLog.println("All done: " + all + " after "
+                + TimeUnit.NANOSECONDS.toMillis(FAN_OUT_TIME.recordSince(allStart)) + "ms");
         executor.shutdown();
     }
+
+    /**
+     * The same fan-out/fan-in, done right and repeated: every wave submits exactly as many tasks as the
+     * latch has parties and the same PhaseLatch and executor are reused for all waves.
+     */
+    private static void waves() {
+        PhaseLatch latch = new PhaseLatch(3);
+        Metrics.gauge("latch.arrived", latch::getArrived);
+        Metrics.gauge("latch.pending", latch::getPending);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        for (int wave = 0; wave < 3; wave++) {
+            int phase = latch.getPhase();
+            for (int i = 0; i < latch.getParties(); i++) {
+                executor.submit(new Processor(latch));
+            }
+            try {
+                // timed wait so we can show progress while the wave is running
+                while (!latch.awaitAdvance(phase, 1, TimeUnit.SECONDS)) {
+                    AsyncLog.println("Wave " + wave + ": " + latch.getArrived() + " arrived, "
+                            + latch.getPending() + " pending");
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            AsyncLog.println("Wave " + wave + " completed in " + latch.getLastPhaseNanos() / 1_000_000 + "ms");
+        }
+        executor.shutdown();
+        Metrics.remove("latch.arrived");
+        Metrics.remove("latch.pending");
+
+        AsyncLog.flush();
+        System.out.print("Phase durations: ");
+        latch.getPhaseDurations().printPercentiles(System.out, "ms", 1_000_000);
+        System.out.print("Wait times: ");
+        latch.getWaitTimes().printPercentiles(System.out, "ms", 1_000_000);
+    }
 }
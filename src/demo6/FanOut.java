@@ -0,0 +1,183 @@
+package demo6;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Fan-out/fan-in without a thread blocked in latch.await().
+ *
+ * With a CountDownLatch the tasks return nothing and some thread has to sit in await() until enough of them
+ * counted down. Here the tasks are Callables, their results are collected as they finish and handed over
+ * through a CompletableFuture, so the caller can chain the next step with thenApply()/thenAccept() or join()
+ * if it really wants to wait.
+ *
+ * At most concurrencyLimit tasks of one call run at the same time; every finished task starts the next one.
+ * Once the result is known (or the returned future is cancelled) tasks that haven't started are dropped
+ * and running ones are interrupted.
+ */
+class FanOut {
+
+    private final ExecutorService executor;
+    private final int concurrencyLimit;
+
+    FanOut(ExecutorService executor, int concurrencyLimit) {
+        if (concurrencyLimit < 1) {
+            throw new IllegalArgumentException("Concurrency limit must be at least 1: " + concurrencyLimit);
+        }
+        this.executor = executor;
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    /** Results of all tasks in the order of the tasks. Fails with the first exception any task throws. */
+    <T> CompletableFuture<List<T>> all(List<? extends Callable<T>> tasks) {
+        return new Job<T>(tasks, tasks.size(), true).start();
+    }
+
+    /**
+     * Results of the first n tasks to succeed, in the order they finished. Tasks that fail are ignored
+     * unless so many fail that n successes are no longer possible.
+     */
+    <T> CompletableFuture<List<T>> firstN(List<? extends Callable<T>> tasks, int n) {
+        if (n < 0 || n > tasks.size()) {
+            throw new IllegalArgumentException("Can't wait for " + n + " of " + tasks.size() + " tasks");
+        }
+        return new Job<T>(tasks, n, false).start();
+    }
+
+    /** State of one all()/firstN() call; guarded by its own monitor */
+    private class Job<T> {
+        private final List<? extends Callable<T>> tasks;
+        private final int needed;
+        private final boolean ordered;
+        private final CompletableFuture<List<T>> result = new CompletableFuture<>();
+        private final Map<Integer, Future<?>> running = new HashMap<>();
+        /** by task index for all(), in completion order for firstN() */
+        private final List<T> values;
+        private int next;
+        private int succeeded;
+        private int failed;
+        private boolean finished;
+
+        Job(List<? extends Callable<T>> tasks, int needed, boolean ordered) {
+            this.tasks = tasks;
+            this.needed = needed;
+            this.ordered = ordered;
+            this.values = ordered ? new ArrayList<>(Arrays.asList(uncheckedArray(tasks.size()))) : new ArrayList<>();
+        }
+
+        @SuppressWarnings("unchecked")
+        private T[] uncheckedArray(int size) {
+            return (T[]) new Object[size];
+        }
+
+        CompletableFuture<List<T>> start() {
+            // covers completion by us as well as cancel() by the caller
+            result.whenComplete((list, error) -> cancelStragglers());
+            if (needed == 0) {
+                result.complete(Collections.emptyList());
+            } else {
+                launch();
+            }
+            return result;
+        }
+
+        private void launch() {
+            RejectedExecutionException rejected = null;
+            synchronized (this) {
+                while (!finished && running.size() < concurrencyLimit && next < tasks.size()) {
+                    int index = next++;
+                    Callable<T> task = tasks.get(index);
+                    try {
+                        // the task can't report back before we release the monitor, so the put happens first
+                        running.put(index, executor.submit(() -> run(index, task)));
+                    } catch (RejectedExecutionException e) {
+                        // executor shut down or saturated: nothing would ever complete the result otherwise
+                        finished = true;
+                        rejected = e;
+                    }
+                }
+            }
+            // outside the monitor, completing runs the dependent stages
+            if (rejected != null) {
+                result.completeExceptionally(rejected);
+            }
+        }
+
+        private void run(int index, Callable<T> task) {
+            T value;
+            try {
+                value = task.call();
+            } catch (Throwable t) {
+                failed(index, t);
+                return;
+            }
+            succeeded(index, value);
+        }
+
+        private void succeeded(int index, T value) {
+            List<T> complete = null;
+            synchronized (this) {
+                running.remove(index);
+                if (finished) {
+                    return;
+                }
+                if (ordered) {
+                    values.set(index, value);
+                } else {
+                    values.add(value);
+                }
+                if (++succeeded == needed) {
+                    finished = true;
+                    complete = Collections.unmodifiableList(values);
+                }
+            }
+            if (complete != null) {
+                result.complete(complete);
+            } else {
+                launch();
+            }
+        }
+
+        private void failed(int index, Throwable error) {
+            boolean giveUp;
+            synchronized (this) {
+                running.remove(index);
+                if (finished) {
+                    return;
+                }
+                failed++;
+                // for all() a single failure already makes this true
+                giveUp = tasks.size() - failed < needed;
+                if (giveUp) {
+                    finished = true;
+                }
+            }
+            if (giveUp) {
+                result.completeExceptionally(error);
+            } else {
+                launch();
+            }
+        }
+
+        private void cancelStragglers() {
+            List<Future<?>> stragglers;
+            synchronized (this) {
+                finished = true;
+                stragglers = new ArrayList<>(running.values());
+                running.clear();
+            }
+            for (Future<?> straggler : stragglers) {
+                straggler.cancel(true);
+            }
+        }
+    }
+}
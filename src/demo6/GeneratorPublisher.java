@@ -0,0 +1,96 @@
+package demo6;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The reactive counterpart of ProducerConsumerDemo.producer(): generates count items, but only as many as
+ * the subscriber asked for.
+ *
+ * producer() calls put() in a loop and, when the queue is full, its thread parks until there is space.
+ * Here nothing runs while there is no demand; every request(n) schedules a drain on the executor that
+ * emits up to n items and then returns the thread to the pool. A thousand stalled publishers cost a
+ * thousand small objects, not a thousand threads.
+ */
+class GeneratorPublisher<T> implements ReactiveStreams.Publisher<T> {
+
+    private final Executor executor;
+    private final long count;
+    private final Supplier<? extends T> generator;
+
+    /** The generator is only ever called by one thread at a time. */
+    GeneratorPublisher(Executor executor, long count, Supplier<? extends T> generator) {
+        this.executor = executor;
+        this.count = count;
+        this.generator = generator;
+    }
+
+    /** Every subscriber gets its own count items. */
+    @Override
+    public void subscribe(ReactiveStreams.Subscriber<? super T> subscriber) {
+        // onSubscribe goes through the drain as well, so it can't overlap with an onNext
+        new GeneratorSubscription(subscriber).schedule();
+    }
+
+    private class GeneratorSubscription extends SerialDrain implements ReactiveStreams.Subscription {
+        private final ReactiveStreams.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        /** only touched by drain() */
+        private long emitted;
+        private boolean subscribed;
+        private boolean finished;
+
+        GeneratorSubscription(ReactiveStreams.Subscriber<? super T> subscriber) {
+            super(executor);
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " items, must be positive");
+            } else {
+                ReactiveStreams.addDemand(demand, n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        protected void drain() {
+            if (!subscribed) {
+                subscribed = true;
+                subscriber.onSubscribe(this);
+            }
+            if (finished || cancelled) {
+                return;
+            }
+            if (invalidRequest != null) {
+                finished = true;
+                subscriber.onError(invalidRequest);
+                return;
+            }
+            long requested = demand.get();
+            long sent = 0;
+            while (sent < requested && emitted < count && !cancelled) {
+                subscriber.onNext(generator.get());
+                emitted++;
+                sent++;
+            }
+            if (requested != Long.MAX_VALUE) {
+                demand.addAndGet(-sent);
+            }
+            if (emitted == count && !cancelled) {
+                finished = true;
+                subscriber.onComplete();
+            }
+        }
+    }
+}
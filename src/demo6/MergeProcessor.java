@@ -0,0 +1,212 @@
+package demo6;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The middle of a reactive pipeline: subscribes to any number of publishers, maps their items and hands
+ * them to a single subscriber, in the order it polls them (round robin over the inputs).
+ *
+ * Every input has a buffer of bufferSize items and never asks its publisher for more than fits. Items leave
+ * a buffer only when the downstream subscriber requested them, and every bufferSize / 2 items taken from an
+ * input are requested again from its publisher. So a slow subscriber throttles every publisher through
+ * demand alone, and memory is bounded by inputs * bufferSize items.
+ *
+ * The buffers are single producer single consumer RingBufferQueues: an input's onNext calls are serial by
+ * contract and only the drain takes from them. The subscriber completes once all expected inputs completed
+ * and their buffers are empty; the first onError of any input cancels the others and is passed on.
+ */
+class MergeProcessor<T, R> implements ReactiveStreams.Publisher<R> {
+
+    private final int expectedInputs;
+    private final int bufferSize;
+    private final int replenish;
+    private final Function<? super T, ? extends R> mapper;
+    private final List<Input> inputs = new CopyOnWriteArrayList<>();
+    private final Output output;
+    private volatile ReactiveStreams.Subscriber<? super R> downstream;
+
+    MergeProcessor(Executor executor, int expectedInputs, int bufferSize, Function<? super T, ? extends R> mapper) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be at least 1: " + bufferSize);
+        }
+        this.expectedInputs = expectedInputs;
+        this.bufferSize = bufferSize;
+        this.replenish = Math.max(1, bufferSize / 2);
+        this.mapper = mapper;
+        this.output = new Output(executor);
+    }
+
+    /** A subscriber to pass to one of the publishers; call it expectedInputs times. */
+    ReactiveStreams.Subscriber<T> newInput() {
+        if (inputs.size() >= expectedInputs) {
+            throw new IllegalStateException("All " + expectedInputs + " inputs exist already");
+        }
+        Input input = new Input();
+        inputs.add(input);
+        return input;
+    }
+
+    /** Only one subscriber is supported. */
+    @Override
+    public void subscribe(ReactiveStreams.Subscriber<? super R> subscriber) {
+        if (downstream != null) {
+            throw new IllegalStateException("MergeProcessor supports a single subscriber");
+        }
+        downstream = subscriber;
+        output.schedule();
+    }
+
+    private class Input implements ReactiveStreams.Subscriber<T> {
+        private final RingBufferQueue<T> buffer =
+                new RingBufferQueue<>(bufferSize, RingBufferQueue.Mode.SINGLE, WaitStrategy.Kind.SPIN);
+        private volatile ReactiveStreams.Subscription upstream;
+        private volatile boolean done;
+        /** taken from the buffer since the last request; only touched by the drain */
+        private int taken;
+
+        @Override
+        public void onSubscribe(ReactiveStreams.Subscription subscription) {
+            upstream = subscription;
+            subscription.request(bufferSize);
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (!buffer.offer(item)) {
+                output.fail(new IllegalStateException("Publisher sent more items than requested"));
+                return;
+            }
+            output.schedule();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            output.fail(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done = true;
+            output.schedule();
+        }
+
+        void cancel() {
+            ReactiveStreams.Subscription subscription = upstream;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+
+    private class Output extends SerialDrain implements ReactiveStreams.Subscription {
+        private final AtomicLong demand = new AtomicLong();
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        /** only touched by drain() */
+        private boolean subscribed;
+        private boolean finished;
+
+        Output(Executor executor) {
+            super(executor);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " items, must be positive"));
+                return;
+            }
+            ReactiveStreams.addDemand(demand, n);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        void fail(Throwable throwable) {
+            if (error == null) {
+                error = throwable;
+            }
+            schedule();
+        }
+
+        @Override
+        protected void drain() {
+            ReactiveStreams.Subscriber<? super R> subscriber = downstream;
+            if (subscriber == null || finished) {
+                return;
+            }
+            if (!subscribed) {
+                subscribed = true;
+                subscriber.onSubscribe(this);
+            }
+            if (cancelled) {
+                finished = true;
+                inputs.forEach(Input::cancel);
+                return;
+            }
+
+            long requested = demand.get();
+            long sent = 0;
+            boolean progress = true;
+            while (sent < requested && progress && error == null) {
+                progress = false;
+                for (Input input : inputs) {
+                    T item = input.buffer.poll();
+                    if (item == null) {
+                        continue;
+                    }
+                    R mapped;
+                    try {
+                        mapped = mapper.apply(item);
+                    } catch (RuntimeException e) {
+                        fail(e);
+                        break;
+                    }
+                    subscriber.onNext(mapped);
+                    sent++;
+                    progress = true;
+                    if (++input.taken == replenish) {
+                        input.taken = 0;
+                        input.upstream.request(replenish);
+                    }
+                    if (sent == requested) {
+                        break;
+                    }
+                }
+            }
+            if (requested != Long.MAX_VALUE) {
+                demand.addAndGet(-sent);
+            }
+
+            if (error != null) {
+                finished = true;
+                inputs.forEach(Input::cancel);
+                subscriber.onError(error);
+            } else if (allInputsDrained()) {
+                finished = true;
+                subscriber.onComplete();
+            }
+        }
+
+        private boolean allInputsDrained() {
+            if (inputs.size() < expectedInputs) {
+                return false;
+            }
+            for (Input input : inputs) {
+                // done first: once it is set no more items arrive, so an empty buffer stays empty
+                if (!input.done || !input.buffer.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package demo6;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and queue occupancy seen by a consumer, reported and reset once per interval.
+ *
+ * Occupancy is sampled right before the consumer removes items. A queue that is usually full means the
+ * consumer is the bottleneck and producers are blocked; a queue that is usually empty means the opposite.
+ */
+class OccupancyStats {
+
+    private final int capacity;
+    private final LongAdder items = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private long samples;
+    private long occupancySum;
+    private int maxOccupancy;
+    private long fullSamples;
+    private long intervalStart = System.nanoTime();
+
+    OccupancyStats(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /** Called by the consumer before it takes from the queue */
+    synchronized void sample(int size) {
+        samples++;
+        occupancySum += size;
+        maxOccupancy = Math.max(maxOccupancy, size);
+        if (size >= capacity) {
+            fullSamples++;
+        }
+    }
+
+    void consumed(int count) {
+        items.add(count);
+        batches.increment();
+    }
+
+    /** Returns a one line summary of the interval since the last report and starts a new one. */
+    synchronized String report() {
+        long now = System.nanoTime();
+        double seconds = (now - intervalStart) / 1_000_000_000.0;
+        long itemCount = items.sumThenReset();
+        long batchCount = batches.sumThenReset();
+        String line = String.format("items/s: %.1f; avg batch: %.1f; queue occupancy avg: %.1f max: %d full: %.0f%%",
+                itemCount / seconds,
+                batchCount == 0 ? 0.0 : (double) itemCount / batchCount,
+                samples == 0 ? 0.0 : (double) occupancySum / samples,
+                maxOccupancy,
+                samples == 0 ? 0.0 : 100.0 * fullSamples / samples);
+        samples = 0;
+        occupancySum = 0;
+        maxOccupancy = 0;
+        fullSamples = 0;
+        intervalStart = now;
+        return line;
+    }
+}
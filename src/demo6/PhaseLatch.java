@@ -0,0 +1,189 @@
+package demo6;
+
+import common.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A CountDownLatch that can be used again for the next wave of tasks.
+ *
+ * A CountDownLatch is one-shot: once it reached zero a new one is needed for the next batch. This latch
+ * counts arrivals instead; when the given number of parties arrived the current phase completes, waiters
+ * are released and the count starts again for the next phase, just like java.util.concurrent.Phaser.
+ *
+ * Because a phase may complete before anyone waits for it, waiting is tied to a phase number:
+ * <pre>
+ *     int phase = latch.getPhase();
+ *     // submit tasks that call latch.countDown()
+ *     latch.awaitAdvance(phase);
+ * </pre>
+ *
+ * Besides that it records how long every phase took (first moment the phase was open until its last arrival)
+ * and how long threads waited for a phase in awaitAdvance(). A thread that retries after timed out calls, like
+ * CountDownLatchDemo.waves(), counts as one wait from its first call until the phase completed.
+ */
+class PhaseLatch {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition advanced = lock.newCondition();
+    private final int parties;
+    private final LatencyHistogram phaseDurations = new LatencyHistogram();
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    /** Per thread: the phase its last timed out awaitAdvance() waited for and the nanoseconds it waited so far */
+    private final ThreadLocal<long[]> timedOutWait = ThreadLocal.withInitial(() -> new long[2]);
+    private int phase;
+    private int arrived;
+    private long phaseStart = System.nanoTime();
+    private long lastPhaseNanos;
+
+    PhaseLatch(int parties) {
+        if (parties < 1) {
+            throw new IllegalArgumentException("Parties must be at least 1: " + parties);
+        }
+        this.parties = parties;
+    }
+
+    /** Records an arrival; the last arrival of a phase releases all waiters and opens the next phase. */
+    void countDown() {
+        lock.lock();
+        try {
+            if (++arrived == parties) {
+                long now = System.nanoTime();
+                lastPhaseNanos = now - phaseStart;
+                phaseDurations.record(lastPhaseNanos);
+                phaseStart = now;
+                arrived = 0;
+                phase++;
+                advanced.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the given phase completed. Returns immediately if it already has.
+     *
+     * @return the phase that is now open
+     */
+    int awaitAdvance(int phase) throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lockInterruptibly();
+        try {
+            while (this.phase == phase) {
+                advanced.await();
+            }
+            recordWait(phase, System.nanoTime() - start);
+            return this.phase;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Like awaitAdvance(int) but gives up after the timeout.
+     *
+     * @return false if the phase was still open when the timeout passed
+     */
+    boolean awaitAdvance(int phase, long timeout, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        long remaining = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (this.phase == phase) {
+                if (remaining <= 0) {
+                    addTimedOutWait(phase, System.nanoTime() - start);
+                    return false;
+                }
+                remaining = advanced.awaitNanos(remaining);
+            }
+            recordWait(phase, System.nanoTime() - start);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Remembers the time a timed out call waited, so the next call for the same phase can add it */
+    private void addTimedOutWait(int phase, long nanos) {
+        long[] wait = timedOutWait.get();
+        if (wait[1] == 0 || wait[0] != phase) {
+            wait[0] = phase;
+            wait[1] = 0;
+        }
+        wait[1] += nanos;
+    }
+
+    private void recordWait(int phase, long nanos) {
+        long[] wait = timedOutWait.get();
+        if (wait[1] != 0 && wait[0] == phase) {
+            nanos += wait[1];
+        }
+        wait[1] = 0;
+        waitTimes.record(nanos);
+    }
+
+    /** Abandons the open phase: arrivals so far are forgotten and the phase starts over. Waiters keep waiting. */
+    void reset() {
+        lock.lock();
+        try {
+            arrived = 0;
+            phaseStart = System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getPhase() {
+        lock.lock();
+        try {
+            return phase;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getParties() {
+        return parties;
+    }
+
+    /** Arrivals in the open phase */
+    int getArrived() {
+        lock.lock();
+        try {
+            return arrived;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Arrivals still missing for the open phase to complete */
+    int getPending() {
+        return parties - getArrived();
+    }
+
+    /** Duration of the most recently completed phase in nanoseconds */
+    long getLastPhaseNanos() {
+        lock.lock();
+        try {
+            return lastPhaseNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Durations of all completed phases */
+    LatencyHistogram getPhaseDurations() {
+        return phaseDurations;
+    }
+
+    /**
+     * Time threads waited for a phase to complete, one value per thread and phase: the calls that timed out
+     * before are added to the one that saw the phase complete. Waits that were given up are not included.
+     */
+    LatencyHistogram getWaitTimes() {
+        return waitTimes;
+    }
+}
@@ -0,0 +1,133 @@
+package demo6;
+
+import common.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ProducerConsumerDemo with M producers, N consumers and a defined end.
+ *
+ * Producers put items stamped with System.nanoTime(), consumers take them and record the time the item spent
+ * in the queue. The run ends either after -Ditems items or after -Dseconds seconds. Producers then stop, one
+ * poison pill per consumer is put behind the remaining items and every consumer exits when it takes one, so
+ * all items are consumed before the threads end.
+ *
+ * Producer and consumer counts take comma separated lists, every combination is run, e.g.
+ * -Dproducers=1,2,4 -Dconsumers=1,2,4 -Dqueue=ring-multi:yield -Dcapacity=1024 -Dseconds=5
+ */
+public class PipelineHarness {
+
+    private static final class Item {
+        private final long enqueuedAt;
+
+        Item(long enqueuedAt) {
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /** Compared by identity, tells a consumer to stop */
+    private static final Item POISON = new Item(0);
+
+    public static void main(String[] args) throws InterruptedException {
+        String queueType = System.getProperty("queue", "array");
+        int capacity = Integer.getInteger("capacity", 1024);
+        long items = Long.getLong("items", 0);
+        long seconds = Long.getLong("seconds", 5);
+        boolean histogram = Boolean.parseBoolean(System.getProperty("histogram", "true"));
+
+        for (String producers : System.getProperty("producers", "1,2,4").split(",")) {
+            for (String consumers : System.getProperty("consumers", "1,2,4").split(",")) {
+                run(queueType, capacity, Integer.parseInt(producers.trim()), Integer.parseInt(consumers.trim()),
+                        items, seconds, histogram);
+            }
+        }
+    }
+
+    private static void run(String queueType, int capacity, int producerCount, int consumerCount, long items,
+                            long seconds, boolean printHistogram) throws InterruptedException {
+        if (queueType.split(":")[0].equals("ring") && (producerCount > 1 || consumerCount > 1)) {
+            System.out.println("Skipping " + producerCount + "x" + consumerCount
+                    + ": 'ring' supports one producer and one consumer, use 'ring-multi'");
+            return;
+        }
+        BlockingQueue<Item> queue = ProducerConsumerDemo.newQueue(queueType, capacity);
+        LongAdder produced = new LongAdder();
+        LongAdder consumed = new LongAdder();
+        LatencyHistogram latencies = new LatencyHistogram();
+        // stop flag for the duration mode
+        AtomicBoolean stop = new AtomicBoolean();
+
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < producerCount; p++) {
+            // split the item count so the producers together put exactly that many
+            long quota = items > 0 ? items / producerCount + (p < items % producerCount ? 1 : 0) : Long.MAX_VALUE;
+            producers.add(new Thread(() -> {
+                try {
+                    for (long i = 0; i < quota; i++) {
+                        if (stop.get()) {
+                            break;
+                        }
+                        queue.put(new Item(System.nanoTime()));
+                        produced.increment();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }, "producer-" + p));
+        }
+
+        List<Thread> consumers = new ArrayList<>();
+        for (int c = 0; c < consumerCount; c++) {
+            consumers.add(new Thread(() -> {
+                // a histogram per consumer avoids contending on the shared one for every item
+                LatencyHistogram local = new LatencyHistogram();
+                try {
+                    while (true) {
+                        Item item = queue.take();
+                        if (item == POISON) {
+                            break;
+                        }
+                        local.record(System.nanoTime() - item.enqueuedAt);
+                        consumed.increment();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                latencies.add(local);
+            }, "consumer-" + c));
+        }
+
+        long start = System.nanoTime();
+        consumers.forEach(Thread::start);
+        producers.forEach(Thread::start);
+
+        if (items <= 0) {
+            Thread.sleep(seconds * 1000);
+            stop.set(true);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        // pills go behind all real items, so consumers drain the queue before they see one
+        for (int c = 0; c < consumerCount; c++) {
+            queue.put(POISON);
+        }
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(String.format("%s, %d producers, %d consumers, capacity %d: produced %d, consumed %d, "
+                        + "%.0f items/s", queueType, producerCount, consumerCount, capacity, produced.sum(),
+                consumed.sum(), consumed.sum() * 1_000_000_000.0 / elapsed));
+        latencies.printPercentiles(System.out, "us", 1000);
+        if (printHistogram) {
+            latencies.printDistribution(System.out, "us", 1000);
+        }
+        System.out.println();
+    }
+}
@@ -1,19 +1,49 @@
 package demo6;
 
+import common.AsyncLog;
+import common.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /** Read documentation for BlockingQueue, ArrayBlockingQueue */
 public class ProducerConsumerDemo {
 
     /** A thread-safe blocking queue (fifo data structure) of size 10 */
-    private static BlockingQueue<Integer> blockingQueue = new ArrayBlockingQueue<>(10);
+    private static BlockingQueue<Integer> blockingQueue;
+
+    private static final Metrics.Counter PRODUCED = Metrics.counter("producer.items");
+    private static final Metrics.Counter CONSUMED = Metrics.counter("consumer.items");
 
+    /**
+     * The queue implementation can be picked with the first argument, see newQueue().
+     * E.g. "ring:park" for a RingBufferQueue whose threads park while waiting.
+     *
+     * A second argument "batch" switches both sides to batches of up to -DbatchSize items (default 10).
+     * The queue capacity can be changed with -Dcapacity (default 10).
+     * -Dmetrics.csv=file or -Dmetrics.json=file records queue size and items per second over time.
+     */
     public static void main(String[] args) throws InterruptedException {
+        int capacity = Integer.getInteger("capacity", 10);
+        blockingQueue = newQueue(args.length > 0 ? args[0] : "array", capacity);
+        boolean batch = args.length > 1 && args[1].equals("batch");
+        int batchSize = Integer.getInteger("batchSize", 10);
+        // ring queues round the capacity up, so ask the empty queue instead of trusting the argument
+        OccupancyStats stats = new OccupancyStats(blockingQueue.remainingCapacity());
+        Metrics.gauge("queue.size", blockingQueue::size);
+
         Thread t1 = new Thread(() -> {
             try {
-                producer();
+                if (batch) {
+                    batchProducer(batchSize);
+                } else {
+                    producer();
+                }
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -21,7 +51,11 @@ public class ProducerConsumerDemo {
 
         Thread t2 = new Thread(() -> {
             try {
-                consumer();
+                if (batch) {
+                    batchConsumer(batchSize, stats);
+                } else {
+                    consumer();
+                }
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -34,6 +68,31 @@ public class ProducerConsumerDemo {
         t2.join();
     }
 
+    /**
+     * Creates a bounded queue by name: "array" (ArrayBlockingQueue), "linked" (LinkedBlockingQueue),
+     * "ring" (RingBufferQueue for one producer and one consumer) or "ring-multi" (RingBufferQueue for any
+     * number of threads). Ring queues take an optional wait strategy, e.g. "ring-multi:yield".
+     * The default strategy is BLOCK, which behaves like the JDK queues.
+     */
+    static <T> BlockingQueue<T> newQueue(String type, int capacity) {
+        String[] parts = type.split(":");
+        WaitStrategy.Kind waitStrategy = parts.length > 1
+                ? WaitStrategy.Kind.valueOf(parts[1].toUpperCase()) : WaitStrategy.Kind.BLOCK;
+        switch (parts[0]) {
+            case "array":
+                return new ArrayBlockingQueue<>(capacity);
+            case "linked":
+                return new LinkedBlockingQueue<>(capacity);
+            case "ring":
+                return new RingBufferQueue<>(capacity, RingBufferQueue.Mode.SINGLE, waitStrategy);
+            case "ring-multi":
+                return new RingBufferQueue<>(capacity, RingBufferQueue.Mode.MULTI, waitStrategy);
+            default:
+                throw new IllegalArgumentException("Unknown queue type: " + type);
+        }
+    }
+
+    /** Backpressure by parking this thread in put(); see BackpressureDemo for a version that parks nothing. */
     private static void producer() throws InterruptedException {
         Random random = new Random();
         // fast producer
@@ -41,6 +100,7 @@ public class ProducerConsumerDemo {
             /** This will wait before consumer removes an item from Queue */
             /** Since the operations are synchronized, there won't be any problem */
             blockingQueue.put(random.nextInt(100));
+            PRODUCED.increment();
         }
     }
 
@@ -52,7 +112,71 @@ public class ProducerConsumerDemo {
             if (random.nextInt(10) == 0) {
                 /** take() similarly waits until it has something to take from the queue() */
                 Integer value = blockingQueue.take();
-                System.out.println("Taken value: " + value + "; queue size is: " + blockingQueue.size());
+                CONSUMED.increment();
+                AsyncLog.println("Taken value: " + value + "; queue size is: " + blockingQueue.size());
+            }
+        }
+    }
+
+    /**
+     * Producer side of the batch mode: values are generated in batches and handed over with putAll(),
+     * which adds as many as fit without waiting and only blocks for the rest.
+     */
+    private static void batchProducer(int batchSize) throws InterruptedException {
+        Random random = new Random();
+        List<Integer> batch = new ArrayList<>(batchSize);
+        while (true) {
+            for (int i = 0; i < batchSize; i++) {
+                batch.add(random.nextInt(100));
+            }
+            putAll(blockingQueue, batch);
+            PRODUCED.add(batch.size());
+            batch.clear();
+        }
+    }
+
+    /** Adds all values in order, blocking like put() whenever the queue is full. */
+    static <T> void putAll(BlockingQueue<T> queue, List<T> values) throws InterruptedException {
+        int i = 0;
+        while (i < values.size()) {
+            // offer() never blocks, so grab all free slots first
+            while (i < values.size() && queue.offer(values.get(i))) {
+                i++;
+            }
+            if (i < values.size()) {
+                queue.put(values.get(i++));
+            }
+        }
+    }
+
+    /**
+     * Consumer side of the batch mode: same 100ms pace as consumer(), but each round drainTo() removes up
+     * to maxBatch items at once instead of a single take(). Reports throughput and occupancy every second.
+     */
+    private static void batchConsumer(int maxBatch, OccupancyStats stats) throws InterruptedException {
+        List<Integer> batch = new ArrayList<>(maxBatch);
+        long nextReport = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (true) {
+            Thread.sleep(100);
+            stats.sample(blockingQueue.size());
+            if (blockingQueue.drainTo(batch, maxBatch) == 0) {
+                // nothing there, wait for at least one item like take() does
+                batch.add(blockingQueue.take());
+                blockingQueue.drainTo(batch, maxBatch - 1);
+            }
+            long sum = 0;
+            for (int value : batch) {
+                sum += value;
+            }
+            stats.consumed(batch.size());
+            CONSUMED.add(batch.size());
+            AsyncLog.println("Taken " + batch.size() + " values, sum: " + sum
+                    + "; queue size is: " + blockingQueue.size());
+            batch.clear();
+
+            if (System.nanoTime() - nextReport >= 0) {
+                AsyncLog.println(stats.report());
+                nextReport += TimeUnit.SECONDS.toNanos(1);
             }
         }
     }
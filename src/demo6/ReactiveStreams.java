@@ -0,0 +1,47 @@
+package demo6;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The interfaces of java.util.concurrent.Flow (the Reactive Streams standard), declared here because this
+ * project compiles for Java 8 and Flow only exists since Java 9. Names and contracts are the same, so moving
+ * to Flow is a matter of changing the imports.
+ *
+ * Backpressure works by demand instead of by blocking: a Subscriber calls request(n) and the Publisher may
+ * then send at most n more items. A publisher without demand simply sends nothing - no thread is parked
+ * while it waits, it gets scheduled again when the next request(n) arrives. Signals to one subscriber
+ * (onSubscribe, onNext, onError, onComplete) never happen concurrently.
+ *
+ * Flow.Processor (a Subscriber and Publisher in one) is left out: MergeProcessor needs several inputs.
+ */
+final class ReactiveStreams {
+
+    private ReactiveStreams() {
+    }
+
+    interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    interface Subscription {
+        /** Allows the publisher to send n more items; n must be positive. */
+        void request(long n);
+
+        void cancel();
+    }
+
+    /** Adds n to the demand, where Long.MAX_VALUE means unbounded */
+    static void addDemand(AtomicLong demand, long n) {
+        demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+    }
+}
@@ -0,0 +1,284 @@
+package demo6;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded blocking queue on top of a ring buffer, usable wherever the demos use ArrayBlockingQueue.
+ *
+ * ArrayBlockingQueue guards everything with one ReentrantLock, so producers and consumers always contend
+ * with each other. Here producers only write the tail and consumers only write the head, both counters are
+ * padded onto their own cache lines (see Sequence) and no lock is taken unless the BLOCK wait strategy is
+ * used and a thread actually has to wait.
+ *
+ * SINGLE mode allows exactly one producer thread and one consumer thread and needs no compare-and-set at
+ * all. MULTI mode allows any number of producers and consumers: every slot carries its own sequence number
+ * telling whether it is free for the lap a producer is on or filled for the lap a consumer is on, and the
+ * threads claim positions by CAS on head/tail.
+ *
+ * size(), peek() and iterator() are snapshots that may be stale by the time they return. The iterator
+ * copies the elements that were in the queue when it was created and can't remove them, so neither can
+ * remove(Object).
+ */
+class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    enum Mode {
+        /** One producer thread and one consumer thread */
+        SINGLE,
+        /** Any number of producer and consumer threads */
+        MULTI
+    }
+
+    private final Mode mode;
+    private final int capacity;
+    private final int mask;
+    private final Object[] buffer;
+    /** MULTI mode only: per slot sequence, see class comment */
+    private final AtomicLongArray slotSequences;
+    private final Sequence head = new Sequence(0);
+    private final Sequence tail = new Sequence(0);
+    private final WaitStrategy notFull;
+    private final WaitStrategy notEmpty;
+
+    RingBufferQueue(int minimumCapacity, Mode mode, WaitStrategy.Kind waitStrategy) {
+        if (minimumCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + minimumCapacity);
+        }
+        // a power of two lets us map positions to slots with a mask
+        this.capacity = minimumCapacity == 1 ? 1 : Integer.highestOneBit(minimumCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.mode = mode;
+        this.buffer = new Object[capacity];
+        if (mode == Mode.MULTI) {
+            slotSequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                slotSequences.set(i, i);
+            }
+        } else {
+            slotSequences = null;
+        }
+        this.notFull = waitStrategy.create();
+        this.notEmpty = waitStrategy.create();
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        boolean added = mode == Mode.SINGLE ? offerSingle(e) : offerMulti(e);
+        if (added) {
+            notEmpty.signal();
+        }
+        return added;
+    }
+
+    private boolean offerSingle(E e) {
+        long t = tail.get();
+        if (t - head.get() == capacity) {
+            return false;
+        }
+        buffer[(int) t & mask] = e;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    private boolean offerMulti(E e) {
+        while (true) {
+            long t = tail.get();
+            int index = (int) t & mask;
+            long difference = slotSequences.get(index) - t;
+            if (difference == 0) {
+                // slot is free for this lap, try to claim the position
+                if (tail.compareAndSet(t, t + 1)) {
+                    buffer[index] = e;
+                    slotSequences.lazySet(index, t + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // the consumer of the previous lap has not freed this slot yet
+                return false;
+            }
+            // another producer claimed the position first, retry with the new tail
+        }
+    }
+
+    @Override
+    public E poll() {
+        E e = mode == Mode.SINGLE ? pollSingle() : pollMulti();
+        if (e != null) {
+            notFull.signal();
+        }
+        return e;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E pollSingle() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int index = (int) h & mask;
+        E e = (E) buffer[index];
+        buffer[index] = null;
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E pollMulti() {
+        while (true) {
+            long h = head.get();
+            int index = (int) h & mask;
+            long difference = slotSequences.get(index) - (h + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(h, h + 1)) {
+                    E e = (E) buffer[index];
+                    buffer[index] = null;
+                    // free the slot for the producers of the next lap
+                    slotSequences.lazySet(index, h + capacity);
+                    return e;
+                }
+            } else if (difference < 0) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        while (!offer(e)) {
+            notFull.await(this::hasSpace, -1);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e)) {
+            // await() waits forever for a negative timeout, an expired deadline must fail right away
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !notFull.await(this::hasSpace, remaining)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        while ((e = poll()) == null) {
+            notEmpty.await(this::hasElements, -1);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        while ((e = poll()) == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !notEmpty.await(this::hasElements, remaining)) {
+                return null;
+            }
+        }
+        return e;
+    }
+
+    private boolean hasSpace() {
+        return tail.get() - head.get() < capacity;
+    }
+
+    private boolean hasElements() {
+        return tail.get() != head.get();
+    }
+
+    @Override
+    public E peek() {
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                return null;
+            }
+            E e = elementAt(h);
+            // only valid if no consumer took position h meanwhile, otherwise look at the new head
+            if (e != null && head.get() == h) {
+                return e;
+            }
+        }
+    }
+
+    /**
+     * The element at the given position, or null if it is not filled (yet or any more). The caller must
+     * check that the position was not consumed while it read, i.e. that head did not move past it.
+     */
+    @SuppressWarnings("unchecked")
+    private E elementAt(long position) {
+        int index = (int) position & mask;
+        if (mode == Mode.MULTI && slotSequences.get(index) != position + 1) {
+            return null;
+        }
+        return (E) buffer[index];
+    }
+
+    @Override
+    public int size() {
+        // read head first so the difference can't be negative
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, Math.min(capacity, t - h));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    /** Iterates over a copy of the elements between head and tail; slow, meant for debugging and tests. */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> elements = new ArrayList<>();
+        long h = head.get();
+        long t = tail.get();
+        for (long position = h; position < t; position++) {
+            E e = elementAt(position);
+            if (head.get() > position) {
+                // consumed while we read it, and so was everything before it
+                elements.clear();
+                continue;
+            }
+            if (e != null) {
+                elements.add(e);
+            }
+        }
+        return Collections.unmodifiableList(elements).iterator();
+    }
+}
@@ -0,0 +1,47 @@
+package demo6;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+class SequenceLeftPadding {
+    long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class SequenceValue extends SequenceLeftPadding {
+    volatile long value;
+}
+
+/**
+ * A counter that sits alone on its cache line.
+ *
+ * A ring buffer's head is written by consumers and its tail by producers. If both counters share a 64 byte
+ * cache line, every write on one side invalidates the line for the other side even though they never touch
+ * the same field (false sharing). The unused longs before and after the value keep it apart from its
+ * neighbours. Padding is done through superclasses because the JVM may reorder fields within one class.
+ */
+class Sequence extends SequenceValue {
+    long p9, p10, p11, p12, p13, p14, p15;
+
+    private static final AtomicLongFieldUpdater<SequenceValue> UPDATER =
+            AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+    Sequence(long initialValue) {
+        value = initialValue;
+    }
+
+    long get() {
+        return value;
+    }
+
+    void set(long newValue) {
+        value = newValue;
+    }
+
+    /** Ordered write: cheaper than set() and enough to publish writes done before it */
+    void lazySet(long newValue) {
+        UPDATER.lazySet(this, newValue);
+    }
+
+    boolean compareAndSet(long expected, long newValue) {
+        return UPDATER.compareAndSet(this, expected, newValue);
+    }
+}
@@ -0,0 +1,39 @@
+package demo6;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs drain() on an executor, never on two threads at once and again if schedule() was called meanwhile.
+ *
+ * This is how the publishers keep their signals serial without holding a lock or a thread: whoever changes
+ * the state (new demand, new item, cancel) calls schedule(); only the call that finds no drain pending
+ * submits a task, the others are picked up by the loop of the running task.
+ */
+abstract class SerialDrain implements Runnable {
+
+    private final Executor executor;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    SerialDrain(Executor executor) {
+        this.executor = executor;
+    }
+
+    final void schedule() {
+        if (pending.getAndIncrement() == 0) {
+            executor.execute(this);
+        }
+    }
+
+    @Override
+    public final void run() {
+        int missed = 1;
+        do {
+            drain();
+            missed = pending.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /** Does whatever the current state allows; must not block. */
+    protected abstract void drain();
+}
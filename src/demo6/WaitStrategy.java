@@ -0,0 +1,177 @@
+package demo6;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * What a thread does while a RingBufferQueue is full (producer) or empty (consumer).
+ *
+ * Spinning reacts fastest but burns a whole core per waiting thread, blocking uses no CPU but pays for a
+ * lock and a context switch on every wake up. Yield and park are in between.
+ */
+interface WaitStrategy {
+
+    enum Kind {
+        SPIN, YIELD, PARK, BLOCK;
+
+        /** Every side of a queue needs its own instance since BLOCK keeps a lock and condition */
+        WaitStrategy create() {
+            switch (this) {
+                case SPIN:
+                    return new SpinWaitStrategy();
+                case YIELD:
+                    return new YieldWaitStrategy();
+                case PARK:
+                    return new ParkWaitStrategy();
+                default:
+                    return new BlockingWaitStrategy();
+            }
+        }
+    }
+
+    /**
+     * Waits until ready returns true (it may then be stale, callers retry) or the timeout passes.
+     *
+     * @param timeoutNanos maximum time to wait, negative to wait forever
+     * @return false if the timeout passed
+     */
+    boolean await(BooleanSupplier ready, long timeoutNanos) throws InterruptedException;
+
+    /** Called by the other side after it changed the queue */
+    void signal();
+}
+
+class SpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public boolean await(BooleanSupplier ready, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (!ready.getAsBoolean()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (timeoutNanos >= 0 && System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void signal() {
+    }
+}
+
+/** Spins for a while and then gives the CPU to other threads between checks */
+class YieldWaitStrategy implements WaitStrategy {
+
+    private static final int SPIN_TRIES = 100;
+
+    @Override
+    public boolean await(BooleanSupplier ready, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        int tries = 0;
+        while (!ready.getAsBoolean()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (timeoutNanos >= 0 && System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            if (++tries > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void signal() {
+    }
+}
+
+/** Sleeps for a very short time between checks, no wake up signal needed */
+class ParkWaitStrategy implements WaitStrategy {
+
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    @Override
+    public boolean await(BooleanSupplier ready, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (!ready.getAsBoolean()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (timeoutNanos >= 0 && System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return true;
+    }
+
+    @Override
+    public void signal() {
+    }
+}
+
+/**
+ * Waits on a condition like ArrayBlockingQueue. The other side only takes the lock when somebody is waiting.
+ *
+ * The queue publishes its counters with ordered (lazySet) writes, so a plain read of waiters in signal()
+ * could be reordered before that write: the signaller sees no waiter while the waiter still sees the old
+ * counter, and nobody wakes it. Both sides therefore go through a read-modify-write of waiters (Dekker
+ * style): the waiter increments it before checking the condition, the signaller adds zero after changing
+ * the queue. These are totally ordered, so either the signaller sees the waiter and takes the lock to wake
+ * it, or the waiter's increment comes later and its check sees the change.
+ */
+class BlockingWaitStrategy implements WaitStrategy {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    @Override
+    public boolean await(BooleanSupplier ready, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        lock.lockInterruptibly();
+        try {
+            waiters.incrementAndGet();
+            try {
+                while (!ready.getAsBoolean()) {
+                    if (timeoutNanos < 0) {
+                        changed.await();
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        changed.awaitNanos(remaining);
+                    }
+                }
+                return true;
+            } finally {
+                waiters.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void signal() {
+        // not get(): see class comment
+        if (waiters.getAndAdd(0) > 0) {
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}